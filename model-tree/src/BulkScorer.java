@@ -0,0 +1,207 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/*
+ * Scores a data file of any size in three stages: a reader that cuts the
+ * file into chunks of lines, a pool that parses and predicts each chunk,
+ * and a writer that emits "id, imdb_id, prediction" lines in file order.
+ * Chunks in flight are bounded by a queue, so a slow writer holds back
+ * the reader and memory stays constant.
+ */
+public class BulkScorer {
+	private static final int ID_INDEX = 1;
+	private static final int OUTPUT_INDEX = 2;
+	
+	private final FlatTree model;
+	private final int threads;
+	private final int chunkSize;
+	
+	/*
+	 * @param model trained tree
+	 * @param threads number of prediction threads
+	 * @param chunkSize lines per chunk
+	 */
+	public BulkScorer(FlatTree model, int threads, int chunkSize) {
+		this.model = model;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+	}
+	
+	/*
+	 * @param in tab separated rows in the data file layout
+	 * @param out where to write id, imdb_id and prediction, tab separated
+	 * @return number of rows scored
+	 */
+	public long score(Reader in, Writer out) throws IOException, ParseException {
+		final BufferedReader reader = new BufferedReader(in);
+		final BlockingQueue<Future<String>> queue = new ArrayBlockingQueue<Future<String>>(2 * threads);
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final Future<String> end = new FutureTask<String>(new Callable<String>() {
+			public String call() {
+				return null;
+			}
+		});
+		final IOException[] readError = new IOException[1];
+		
+		// reader stage
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					List<String> chunk = new ArrayList<String>(chunkSize);
+					int[] numbers = new int[chunkSize];
+					int number = 0; // line number in the input, counting blank lines
+					String line;
+					while ((line = reader.readLine()) != null) {
+						number++;
+						if (line.length() == 0) {
+							continue;
+						}
+						numbers[chunk.size()] = number;
+						chunk.add(line);
+						if (chunk.size() == chunkSize) {
+							queue.put(pool.submit(new Chunk(chunk, numbers)));
+							chunk = new ArrayList<String>(chunkSize);
+							numbers = new int[chunkSize];
+						}
+					}
+					if (chunk.size() > 0) {
+						queue.put(pool.submit(new Chunk(chunk, numbers)));
+					}
+				} catch (IOException e) {
+					readError[0] = e;
+				} catch (InterruptedException e) {
+					return; // the writer gave up
+				}
+				try {
+					queue.put(end);
+				} catch (InterruptedException e) {
+					// the writer gave up
+				}
+			}
+		}, "BulkScorer reader");
+		producer.setDaemon(true);
+		producer.start();
+		
+		// writer stage, in the order the chunks were read
+		BufferedWriter writer = new BufferedWriter(out);
+		long rows = 0;
+		try {
+			Future<String> next;
+			while ((next = queue.take()) != end) {
+				String lines = next.get();
+				writer.write(lines);
+				rows += count(lines);
+			}
+			writer.flush();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while scoring", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ParseException) {
+				throw (ParseException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			producer.interrupt();
+			pool.shutdownNow();
+		}
+		if (readError[0] != null) {
+			throw readError[0];
+		}
+		return rows;
+	}
+	
+	private static int count(String lines) {
+		int count = 0;
+		for (int i = 0; i < lines.length(); i++) {
+			if (lines.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/*
+	 * Parses and scores one chunk of lines.
+	 */
+	private class Chunk implements Callable<String> {
+		private final List<String> lines;
+		private final int[] numbers; // 1-based input line number of each line
+		
+		/*
+		 * @param lines non-empty lines of the input
+		 * @param numbers 1-based input line number of each line
+		 */
+		public Chunk(List<String> lines, int[] numbers) {
+			this.lines = lines;
+			this.numbers = numbers;
+		}
+		
+		public String call() throws ParseException {
+			Dataset.Builder builder = new Dataset.Builder(model.getDiscreteFeatures(), model.getContinuousFeatures());
+			String[] ids = new String[lines.size()];
+			for (int i = 0; i < lines.size(); i++) {
+				String[] example = lines.get(i).split("\t", -1);
+				ids[i] = example[0];
+				try {
+					builder.add(Parse.createRow(example, numbers[i], ID_INDEX, OUTPUT_INDEX, model.getDiscreteFeatures(), model.getContinuousFeatures()));
+				} catch (ParseException e) {
+					throw new ParseException("Line " + numbers[i] + ": " + e.getMessage(), numbers[i]);
+				} catch (NumberFormatException e) {
+					throw new ParseException("Line " + numbers[i] + ": " + e.getMessage(), numbers[i]);
+				}
+			}
+			Dataset data = builder.build();
+			double[] predictions = new Predictor(model, data).predict(data.rows());
+			
+			StringBuilder result = new StringBuilder(lines.size() * 32);
+			for (int i = 0; i < predictions.length; i++) {
+				result.append(ids[i]).append('\t').append(data.getIdentifier(i)).append('\t').append(predictions[i]).append('\n');
+			}
+			return result.toString();
+		}
+	}
+	
+	/*
+	 * Scores a data file with a saved model.
+	 * @param args model file, data file, output file (- for standard output), then optionally the thread count
+	 */
+	public static void main(String[] args) throws IOException, ParseException {
+		if (args.length < 3) {
+			System.err.println("Usage: BulkScorer <model file> <data file> <output file|-> [threads]");
+			System.exit(1);
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		FlatTree model = ModelFile.read(new File(args[0]));
+		Reader in = new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8);
+		Writer out = new OutputStreamWriter(args[2].equals("-") ? System.out : new FileOutputStream(args[2]), StandardCharsets.UTF_8);
+		long start = System.nanoTime();
+		long rows;
+		try {
+			rows = new BulkScorer(model, threads, 1024).score(in, out);
+		} finally {
+			in.close();
+			out.close();
+		}
+		System.err.println("Scored " + rows + " rows in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
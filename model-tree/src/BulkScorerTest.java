@@ -0,0 +1,52 @@
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.text.ParseException;
+
+/*
+ * Feeds BulkScorer well-formed and malformed input through the hand-built
+ * tree of TestSupport. Throws on the first check that fails.
+ */
+public class BulkScorerTest {
+	/*
+	 * @param input rows in the data file layout
+	 * @param chunkSize lines per chunk
+	 * @return scored lines
+	 */
+	private static String score(String input, int chunkSize) throws Exception {
+		StringWriter out = new StringWriter();
+		new BulkScorer(TestSupport.MODEL, 2, chunkSize).score(new StringReader(input), out);
+		return out.toString();
+	}
+	
+	/*
+	 * @param input rows in the data file layout, one of them malformed
+	 * @param chunkSize lines per chunk
+	 * @param line expected 1-based line number of the malformed row
+	 */
+	private static void expectError(String input, int chunkSize, int line) throws Exception {
+		try {
+			score(input, chunkSize);
+		} catch (ParseException e) {
+			TestSupport.check(e.getMessage().startsWith("Line " + line + ": "), "message names line " + line + ": " + e.getMessage());
+			TestSupport.check(e.getErrorOffset() == line, "offset is line " + line + ": " + e.getErrorOffset());
+			return;
+		}
+		throw new IllegalStateException("expected a ParseException for line " + line);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		String good = "1\ttt1\t7\tA\tDrama\t100\n\n2\ttt2\t6\tB\tComedy\t80\n";
+		TestSupport.check(score(good, 1).equals("1\ttt1\t6.0\n2\ttt2\t3.75\n"), "scores well-formed input: " + score(good, 1));
+		
+		// an unparseable number after a blank line
+		expectError("1\ttt1\t7\tA\tDrama\t100\n\n2\ttt2\t6\tB\tComedy\tlong\n", 1, 3);
+		
+		// too few columns in a later chunk, after several blank lines
+		expectError("1\ttt1\t7\tA\tDrama\t100\n2\ttt2\t6\tB\tComedy\t80\n\n\n3\ttt3\t5\n", 2, 5);
+		
+		// a bad output column on the first line
+		expectError("1\ttt1\tseven\tA\tDrama\t100\n", 4, 1);
+		
+		System.out.println("BulkScorerTest passed");
+	}
+}
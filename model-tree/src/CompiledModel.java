@@ -0,0 +1,47 @@
+
+/*
+ * Base class of the straight-line code TreeCompiler generates for a
+ * trained tree. The generated code follows rows with one value per
+ * split; a row with several values for a split is handed to a Predictor,
+ * which evaluates each leaf it reaches once instead of once per path.
+ */
+public abstract class CompiledModel {
+	protected final FlatTree tree;
+	protected final Feature[] features; // discrete features by id
+	protected final int[][] tables; // value to case of splits too wide for a switch
+	private volatile Predictor predictor; // predictor of the last dataset with a multi-valued row
+	
+	/*
+	 * @param tree trained tree the code was generated from
+	 * @param tables lookup tables the generated code refers to
+	 */
+	protected CompiledModel(FlatTree tree, int[][] tables) {
+		this.tree = tree;
+		this.features = tree.getDiscreteFeatures().toArray(new Feature[0]);
+		this.tables = tables;
+	}
+	
+	/*
+	 * Predicts a row that does not have exactly one value for a split.
+	 * @param data dataset holding the row
+	 * @param row row index
+	 * @return predicted output, or NaN if the row has no value for a split
+	 */
+	protected double collect(Dataset data, int row) {
+		Predictor cached = predictor;
+		if (cached == null || cached.getDataset() != data) {
+			cached = new Predictor(tree, data);
+			predictor = cached;
+		}
+		return cached.predict(row);
+	}
+	
+	/*
+	 * Predicts the output of one row. The dataset must use the features
+	 * the tree was trained with, as Predictor checks.
+	 * @param data dataset holding the row
+	 * @param row row index
+	 * @return predicted output, or NaN if the row has no value for a split
+	 */
+	public abstract double predict(Dataset data, int row);
+}
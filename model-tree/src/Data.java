@@ -1,21 +1,21 @@
-import java.util.List;
+import java.util.Arrays;
 
 public class Data {
 	private int id;
 	private String identifier;
 	private float output;
-	private List<List<String>> discrete;
-	private List<Number> continuous;
+	private int[][] discrete;
+	private double[] continuous;
 	
 	/*
 	 * Create Data object
 	 * @param id example id
 	 * @param identifier example id
 	 * @param output actual continuous output of example
-	 * @param discrete list of discrete feature values
-	 * @param continuous list of continuous feature values
+	 * @param discrete discrete feature value indices, one array per feature
+	 * @param continuous continuous feature values
 	 */
-	public Data(int id, String identifier, float output, List<List<String>> discrete, List<Number> continuous) {
+	public Data(int id, String identifier, float output, int[][] discrete, double[] continuous) {
 		this.id = id;
 		this.identifier = identifier;
 		this.output = output;
@@ -35,43 +35,39 @@ public class Data {
 		return output;
 	}
 	
-	public List<List<String>> getDiscrete() {
+	public int[][] getDiscrete() {
 		return discrete;
 	}
 	
-	public List<String> getDiscrete(Feature feature) {
-		return discrete.get(feature.getID());
+	/*
+	 * @param feature discrete feature
+	 * @return indices of this example's values in feature.getValues()
+	 */
+	public int[] getDiscrete(Feature feature) {
+		return discrete[feature.getID()];
 	}
 	
-	public List<String> getDiscrete(int id) {
-		return discrete.get(id);
+	public int[] getDiscrete(int id) {
+		return discrete[id];
 	}
 	
 	public int getDiscreteSize() {
-		return discrete.size();
-	}
-	
-	public List<Number> getContinuous() {
-		return continuous;
+		return discrete.length;
 	}
 	
 	public double[] getContinuousArray() {
-		double[] result = new double[continuous.size()];
-		for (int i = 0; i < continuous.size(); i++) {
-			result[i] = continuous.get(i).doubleValue();
-		}
-		return result;
+		return continuous;
 	}
 	
-	public Number getContinuous(int index) {
-		return continuous.get(index);
+	public double getContinuous(int index) {
+		return continuous[index];
 	}
 	
 	public int getContinuousSize() {
-		return continuous.size();
+		return continuous.length;
 	}
 	
 	public String toString() {
-		return "{" + id + ", " + output + ", " + discrete.toString() + ", " + continuous.toString() + "}";
+		return "{" + id + ", " + output + ", " + Arrays.deepToString(discrete) + ", " + Arrays.toString(continuous) + "}";
 	}
 }
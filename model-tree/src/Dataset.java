@@ -0,0 +1,255 @@
+import java.util.Arrays;
+import java.util.List;
+
+public class Dataset {
+	private final List<Feature> discreteFeatures;
+	private final List<Feature> continuousFeatures;
+	private final int size;
+	private final int[] ids;
+	private final String[] identifiers;
+	private final float[] output;
+	private final int[][] offsets; // per discrete feature; null if every row has exactly one value
+	private final int[][] values; // per discrete feature; value indices of all rows back to back
+	private final double[][] continuous; // per continuous feature
+	
+	/*
+	 * Create Dataset object. Use Dataset.Builder to fill the columns.
+	 * @param discreteFeatures list of discrete features
+	 * @param continuousFeatures list of continuous features
+	 * @param size number of rows
+	 * @param ids example ids
+	 * @param identifiers example identifiers
+	 * @param output actual continuous output of each example
+	 * @param offsets start of each row in values, one array per discrete feature
+	 * @param values discrete value indices, one array per discrete feature
+	 * @param continuous continuous values, one array per continuous feature
+	 */
+	private Dataset(List<Feature> discreteFeatures, List<Feature> continuousFeatures, int size, int[] ids, String[] identifiers, float[] output, int[][] offsets, int[][] values, double[][] continuous) {
+		this.discreteFeatures = discreteFeatures;
+		this.continuousFeatures = continuousFeatures;
+		this.size = size;
+		this.ids = ids;
+		this.identifiers = identifiers;
+		this.output = output;
+		this.offsets = offsets;
+		this.values = values;
+		this.continuous = continuous;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public List<Feature> getDiscreteFeatures() {
+		return discreteFeatures;
+	}
+	
+	public List<Feature> getContinuousFeatures() {
+		return continuousFeatures;
+	}
+	
+	public int getID(int row) {
+		return ids[row];
+	}
+	
+	public String getIdentifier(int row) {
+		return identifiers[row];
+	}
+	
+	public float getOutput(int row) {
+		return output[row];
+	}
+	
+	public float[] getOutputs() {
+		return output;
+	}
+	
+	/*
+	 * @param feature discrete feature
+	 * @param row row index
+	 * @return position of the row's first value in getValues(feature)
+	 */
+	public int getValueStart(Feature feature, int row) {
+		int[] start = offsets[feature.getID()];
+		return start == null ? row : start[row];
+	}
+	
+	/*
+	 * @param feature discrete feature
+	 * @param row row index
+	 * @return position after the row's last value in getValues(feature)
+	 */
+	public int getValueEnd(Feature feature, int row) {
+		int[] start = offsets[feature.getID()];
+		return start == null ? row + 1 : start[row + 1];
+	}
+	
+	/*
+	 * @param feature discrete feature
+	 * @return value indices of every row, addressed with getValueStart/getValueEnd
+	 */
+	public int[] getValues(Feature feature) {
+		return values[feature.getID()];
+	}
+	
+	public int getValueCount(Feature feature, int row) {
+		return getValueEnd(feature, row) - getValueStart(feature, row);
+	}
+	
+	public int getDiscreteSize() {
+		return values.length;
+	}
+	
+	public double getContinuous(int feature, int row) {
+		return continuous[feature][row];
+	}
+	
+	public double[] getContinuousColumn(int feature) {
+		return continuous[feature];
+	}
+	
+	public int getContinuousSize() {
+		return continuous.length;
+	}
+	
+	/*
+	 * @return every row index of the dataset in order
+	 */
+	public int[] rows() {
+		int[] rows = new int[size];
+		for (int i = 0; i < size; i++) {
+			rows[i] = i;
+		}
+		return rows;
+	}
+	
+	public String toString(int row) {
+		String result = "{" + ids[row] + ", " + output[row] + ", [";
+		for (int i = 0; i < discreteFeatures.size(); i++) {
+			Feature feature = discreteFeatures.get(i);
+			result += Arrays.toString(Arrays.copyOfRange(getValues(feature), getValueStart(feature, row), getValueEnd(feature, row)));
+			if (i < discreteFeatures.size() - 1) {
+				result += ", ";
+			}
+		}
+		result += "], [";
+		for (int i = 0; i < continuous.length; i++) {
+			result += continuous[i][row];
+			if (i < continuous.length - 1) {
+				result += ", ";
+			}
+		}
+		return result + "]}";
+	}
+	
+	/*
+	 * Collects rows one at a time and lays them out in columns.
+	 */
+	public static class Builder {
+		private final List<Feature> discreteFeatures;
+		private final List<Feature> continuousFeatures;
+		private int size;
+		private int[] ids;
+		private String[] identifiers;
+		private float[] output;
+		private int[][] offsets;
+		private int[][] values;
+		private double[][] continuous;
+		
+		/*
+		 * @param discreteFeatures list of discrete features
+		 * @param continuousFeatures list of continuous features
+		 */
+		public Builder(List<Feature> discreteFeatures, List<Feature> continuousFeatures) {
+			this.discreteFeatures = discreteFeatures;
+			this.continuousFeatures = continuousFeatures;
+			int capacity = 16;
+			ids = new int[capacity];
+			identifiers = new String[capacity];
+			output = new float[capacity];
+			offsets = new int[discreteFeatures.size()][capacity + 1];
+			values = new int[discreteFeatures.size()][capacity];
+			continuous = new double[continuousFeatures.size()][capacity];
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		/*
+		 * Appends a parsed example.
+		 * @param example example to append
+		 */
+		public Builder add(Data example) {
+			return add(example.getID(), example.getIdentifier(), example.getOutput(), example.getDiscrete(), example.getContinuousArray());
+		}
+		
+		/*
+		 * Appends one row.
+		 * @param id example id
+		 * @param identifier example identifier
+		 * @param value actual continuous output of example
+		 * @param discrete discrete feature value indices, one array per feature
+		 * @param x continuous feature values
+		 */
+		public Builder add(int id, String identifier, float value, int[][] discrete, double[] x) {
+			if (size == ids.length) {
+				grow();
+			}
+			ids[size] = id;
+			identifiers[size] = identifier;
+			output[size] = value;
+			for (int f = 0; f < discrete.length; f++) {
+				int start = offsets[f][size];
+				int end = start + discrete[f].length;
+				if (end > values[f].length) {
+					values[f] = Arrays.copyOf(values[f], Math.max(end, values[f].length * 2));
+				}
+				System.arraycopy(discrete[f], 0, values[f], start, discrete[f].length);
+				offsets[f][size + 1] = end;
+			}
+			for (int f = 0; f < x.length; f++) {
+				continuous[f][size] = x[f];
+			}
+			size++;
+			return this;
+		}
+		
+		private void grow() {
+			int capacity = ids.length * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			identifiers = Arrays.copyOf(identifiers, capacity);
+			output = Arrays.copyOf(output, capacity);
+			for (int f = 0; f < offsets.length; f++) {
+				offsets[f] = Arrays.copyOf(offsets[f], capacity + 1);
+			}
+			for (int f = 0; f < continuous.length; f++) {
+				continuous[f] = Arrays.copyOf(continuous[f], capacity);
+			}
+		}
+		
+		/*
+		 * Trims the columns to size. Offsets are dropped for features where
+		 * every row has exactly one value.
+		 * @return dataset holding every added row
+		 */
+		public Dataset build() {
+			int[][] start = new int[offsets.length][];
+			int[][] value = new int[values.length][];
+			for (int f = 0; f < offsets.length; f++) {
+				int count = offsets[f][size];
+				value[f] = Arrays.copyOf(values[f], count);
+				boolean single = count == size;
+				for (int row = 0; single && row < size; row++) {
+					single = offsets[f][row] == row;
+				}
+				start[f] = single ? null : Arrays.copyOf(offsets[f], size + 1);
+			}
+			double[][] x = new double[continuous.length][];
+			for (int f = 0; f < continuous.length; f++) {
+				x[f] = Arrays.copyOf(continuous[f], size);
+			}
+			return new Dataset(discreteFeatures, continuousFeatures, size, Arrays.copyOf(ids, size), Arrays.copyOf(identifiers, size), Arrays.copyOf(output, size), start, value, x);
+		}
+	}
+}
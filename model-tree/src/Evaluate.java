@@ -6,14 +6,56 @@ import java.util.Scanner;
 public class Evaluate {
 	private double rms;
 	private double normRMS;
+	private long nanos; // time spent predicting
+	private int rows;
 	
-	public Evaluate(ModelTree tree, List<Data> test) {
+	/*
+	 * Evaluates a tree on a set of test rows.
+	 * @param tree trained model tree
+	 * @param data dataset holding the test rows
+	 * @param test row indices of the test data
+	 */
+	public Evaluate(ModelTree tree, Dataset data, int[] test) {
+		this(tree.getPredictor(data), test);
+	}
+	
+	/*
+	 * Evaluates a tree on a set of test rows.
+	 * @param predictor predictor for the tree and the dataset holding the test rows
+	 * @param test row indices of the test data
+	 */
+	public Evaluate(Predictor predictor, int[] test) {
+		this(predictor, test, 0, test.length);
+	}
+	
+	/*
+	 * Evaluates a tree on the test rows of one fold.
+	 * @param predictor predictor for the tree and the dataset holding the rows
+	 * @param split folds of the dataset
+	 * @param fold index of the fold to test on
+	 */
+	public Evaluate(Predictor predictor, FoldSplit split, int fold) {
+		this(predictor, split.getRows(), split.getTestStart(fold), split.getTestEnd(fold));
+	}
+	
+	/*
+	 * Evaluates a tree on a range of test rows.
+	 * @param predictor predictor for the tree and the dataset holding the test rows
+	 * @param test row indices
+	 * @param from start of the test rows
+	 * @param to end of the test rows
+	 */
+	public Evaluate(Predictor predictor, int[] test, int from, int to) {
 		rms = 0;
 		normRMS = 0;
 		double min = Double.MAX_VALUE;
 		double max = Double.MIN_VALUE;
-		for (Data example : test) {
-			double temp = tree.testExample(example, ModelTreeTest.PREDICTIONS); // testExample returns square of difference
+		Dataset data = predictor.getDataset();
+		long start = System.nanoTime();
+		double[] errors = predictor.squaredErrors(test, from, to); // square of difference of each example
+		nanos = System.nanoTime() - start;
+		rows = to - from;
+		for (double temp : errors) {
 			rms += temp;
 			if (temp < min) {
 				min = temp;
@@ -22,8 +64,15 @@ public class Evaluate {
 				max = temp;
 			}
 		}
-		rms = Math.sqrt(rms / test.size());
+		rms = Math.sqrt(rms / rows);
 		normRMS = rms / (max - min);
+		if (ModelTreeTest.PREDICTIONS) {
+			double[] predictions = predictor.predict(test, from, to);
+			for (int i = 0; i < rows; i++) {
+				double output = data.getOutput(test[from + i]);
+				System.out.println(output + "\t" + predictions[i] + "\t" + (output - predictions[i]));
+			}
+		}
 		/*
 		if (ModelTreeTest.PREDICTIONS) {
 			System.out.println(rms + "\t" + normRMS);
@@ -40,6 +89,13 @@ public class Evaluate {
 		return normRMS;
 	}
 	
+	/*
+	 * @return test rows scored per second, not counting model training
+	 */
+	public double getRowsPerSecond() {
+		return rows * 1e9 / Math.max(nanos, 1);
+	}
+	
 	/*
 	 * @param array double array to average
 	 * @return average of double array
@@ -1,10 +1,13 @@
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Feature {
 	private int id;
 	private int oldID;
 	private String name;
 	private List<String> values;
+	private Map<String, Integer> ordinals;
 	
 	/*
 	 * Discrete feature constructor
@@ -17,6 +20,14 @@ public class Feature {
 		this.oldID = oldID;
 		this.name = name;
 		this.values = values;
+		
+		// index the values so lookups don't have to scan the list
+		ordinals = new HashMap<String, Integer>(values.size() * 2);
+		for (int i = 0; i < values.size(); i++) {
+			if (!ordinals.containsKey(values.get(i))) {
+				ordinals.put(values.get(i), i);
+			}
+		}
 	}
 	
 	/*
@@ -29,6 +40,7 @@ public class Feature {
 		this.oldID = oldID;
 		this.name = name;
 		this.values = null;
+		this.ordinals = null;
 	}
 	
 	public int getID() {
@@ -55,6 +67,20 @@ public class Feature {
 		}
 	}
 	
+	/*
+	 * @param value discrete feature value
+	 * @return index of value in the feature values or -1 if value is unknown
+	 */
+	public int getValueIndex(String value) {
+		if (isDiscrete()) {
+			Integer index = ordinals.get(value);
+			if (index != null) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
 	public int getValueCount() {
 		if (isDiscrete()) {
 			return values.size();
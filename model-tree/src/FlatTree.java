@@ -0,0 +1,138 @@
+import java.util.List;
+
+public class FlatTree {
+	private final List<Feature> discrete;
+	private final List<Feature> continuous;
+	private final int[] feature; // per node; discrete feature id, or -1 for a leaf
+	private final int[] offset; // per node; start in children, or in weights for a leaf
+	private final int[] children; // child node of each internal node, indexed by value
+	private final double[] weights; // leaf weights back to back, intercept first
+	private final int leafCount;
+	
+	/*
+	 * Create FlatTree object. Node 0 is the root and every node comes
+	 * after its parent.
+	 * @param discrete list of discrete features
+	 * @param continuous list of continuous features
+	 * @param feature discrete feature id of each node, or -1 for leaves
+	 * @param offset start of each node's children, or of a leaf's weights
+	 * @param children child node indices of all internal nodes
+	 * @param weights weights of all leaves
+	 */
+	public FlatTree(List<Feature> discrete, List<Feature> continuous, int[] feature, int[] offset, int[] children, double[] weights) {
+		this.discrete = discrete;
+		this.continuous = continuous;
+		this.feature = feature;
+		this.offset = offset;
+		this.children = children;
+		this.weights = weights;
+		this.leafCount = weights.length / (continuous.size() + 1);
+	}
+	
+	public List<Feature> getDiscreteFeatures() {
+		return discrete;
+	}
+	
+	public List<Feature> getContinuousFeatures() {
+		return continuous;
+	}
+	
+	public int getNodeCount() {
+		return feature.length;
+	}
+	
+	public int getLeafCount() {
+		return leafCount;
+	}
+	
+	public boolean isLeaf(int node) {
+		return feature[node] < 0;
+	}
+	
+	/*
+	 * @param node internal node
+	 * @return discrete feature the node splits on
+	 */
+	public Feature getFeature(int node) {
+		return discrete.get(feature[node]);
+	}
+	
+	/*
+	 * @param node internal node
+	 * @return id of the discrete feature the node splits on
+	 */
+	public int getFeatureID(int node) {
+		return feature[node];
+	}
+	
+	/*
+	 * @param node internal node
+	 * @param value index of a value of the node's feature
+	 * @return child node for that value
+	 */
+	public int getChild(int node, int value) {
+		return children[offset[node] + value];
+	}
+	
+	/*
+	 * @param node leaf node
+	 * @return position of the leaf's intercept in getWeights()
+	 */
+	public int getWeightOffset(int node) {
+		return offset[node];
+	}
+	
+	public double[] getWeights() {
+		return weights;
+	}
+	
+	/*
+	 * Evaluates a leaf's linear equation for one row of a dataset.
+	 * @param node leaf node
+	 * @param data dataset holding the row
+	 * @param row row index
+	 * @return equation result
+	 */
+	public double solve(int node, Dataset data, int row) {
+		int start = offset[node];
+		double result = 0;
+		for (int i = 0; i < continuous.size(); i++) {
+			result += weights[start + i + 1] * data.getContinuous(i, row);
+		}
+		return result + weights[start];
+	}
+	
+	/*
+	 * Copies out the linear equation of a leaf.
+	 * @param node leaf node
+	 * @return leaf equation
+	 */
+	public LinearEquation getEquation(int node) {
+		double[] w = new double[continuous.size() + 1];
+		System.arraycopy(weights, offset[node], w, 0, w.length);
+		return new LinearEquation(w);
+	}
+	
+	/*
+	 * Estimates the heap used by this model, assuming 16 byte object and
+	 * array headers with 8 byte alignment. The feature lists are shared
+	 * with the Configuration and are not counted.
+	 * @return approximate size in bytes
+	 */
+	public long getFootprint() {
+		long bytes = align(16 + 6 * 8 + 4);
+		bytes += align(16 + 4L * feature.length);
+		bytes += align(16 + 4L * offset.length);
+		bytes += align(16 + 4L * children.length);
+		bytes += align(16 + 8L * weights.length);
+		return bytes;
+	}
+	
+	private static long align(long bytes) {
+		return (bytes + 7) / 8 * 8;
+	}
+	
+	public String toString() {
+		return getNodeCount() + " nodes, " + leafCount + " leaves, " + getFootprint() + " bytes";
+	}
+}
@@ -0,0 +1,129 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Serves every fold of a FoldManifest from one parse of its master data
+ * file. Rows are numbered in the order of the manifest. Without derived
+ * columns all folds share one Dataset; otherwise each fold gets a Dataset
+ * whose derived continuous features hold the fold's values, sharing the
+ * discrete values of the other folds. Every Dataset is built once, when
+ * the manifest is loaded.
+ */
+public class FoldLoader {
+	private final FoldManifest manifest;
+	private final List<Feature> discreteFeatures;
+	private final List<Feature> continuousFeatures;
+	private final Data[] rows; // rows with the derived values of fold 0
+	private final int[] derivedFeature; // continuous feature of each derived column, -1 if it is not one
+	private final double[][] derivedValues; // per row; parsed derived values, fold after fold
+	private final FoldSplit split;
+	private final Dataset[] datasets; // per fold
+	
+	/*
+	 * @param file manifest to load
+	 * @param outputIndex index of actual output
+	 * @param discreteFeatures list of discrete features
+	 * @param continuousFeatures list of continuous features
+	 */
+	public FoldLoader(File file, int outputIndex, List<Feature> discreteFeatures, List<Feature> continuousFeatures) throws FileNotFoundException, ParseException {
+		this.manifest = FoldManifest.read(file);
+		this.discreteFeatures = discreteFeatures;
+		this.continuousFeatures = continuousFeatures;
+		int[] derived = manifest.getDerived();
+		int foldCount = manifest.getFoldCount();
+		
+		derivedFeature = new int[derived.length];
+		for (int c = 0; c < derived.length; c++) {
+			derivedFeature[c] = -1;
+			for (Feature feature : continuousFeatures) {
+				if (feature.getOldID() == derived[c]) {
+					derivedFeature[c] = feature.getID();
+				}
+			}
+			for (Feature feature : discreteFeatures) {
+				if (feature.getOldID() == derived[c]) {
+					throw new IllegalArgumentException("Derived column " + derived[c] + " is the discrete feature " + feature.getName());
+				}
+			}
+		}
+		
+		Map<String, String[]> master = FoldManifest.readRows(new File(file.getAbsoluteFile().getParentFile(), manifest.getData()), manifest.getIDIndex());
+		NumberFormat format = NumberFormat.getInstance();
+		rows = new Data[manifest.size()];
+		derivedValues = new double[manifest.size()][foldCount * derived.length];
+		int[] order = new int[manifest.size()];
+		for (int row = 0; row < rows.length; row++) {
+			String[] example = master.get(manifest.getID(row));
+			if (example == null) {
+				throw new ParseException("Row " + manifest.getID(row) + " is not in " + manifest.getData(), row);
+			}
+			if (derived.length > 0) {
+				example = example.clone();
+				for (int c = 0; c < derived.length; c++) {
+					example[derived[c]] = manifest.getValue(row, 0, c);
+					for (int fold = 1; derivedFeature[c] >= 0 && fold < foldCount; fold++) {
+						derivedValues[row][fold * derived.length + c] = format.parse(manifest.getValue(row, fold, c)).doubleValue();
+					}
+				}
+			}
+			rows[row] = Parse.createData(example, row, manifest.getIDIndex(), outputIndex, discreteFeatures, continuousFeatures);
+			order[row] = row;
+		}
+		
+		split = new FoldSplit(order, manifest.getFolds(), foldCount, manifest.getSeed());
+		datasets = new Dataset[foldCount];
+		for (int fold = 0; fold < foldCount; fold++) {
+			datasets[fold] = derived.length == 0 && fold > 0 ? datasets[0] : build(fold);
+		}
+	}
+	
+	public FoldManifest getManifest() {
+		return manifest;
+	}
+	
+	/*
+	 * @return folds of the manifest's rows
+	 */
+	public FoldSplit getSplit() {
+		return split;
+	}
+	
+	public int getFoldCount() {
+		return split.getFoldCount();
+	}
+	
+	/*
+	 * @param fold fold index
+	 * @return dataset holding every row, with the fold's derived values
+	 */
+	public Dataset getDataset(int fold) {
+		return datasets[fold];
+	}
+	
+	/*
+	 * @param fold fold whose derived values to use
+	 * @return dataset holding every row
+	 */
+	private Dataset build(int fold) {
+		int width = derivedFeature.length;
+		Dataset.Builder examples = new Dataset.Builder(discreteFeatures, continuousFeatures);
+		for (int row = 0; row < rows.length; row++) {
+			Data example = rows[row];
+			double[] continuous = example.getContinuousArray();
+			if (fold > 0 && width > 0) {
+				continuous = continuous.clone();
+				for (int c = 0; c < width; c++) {
+					if (derivedFeature[c] >= 0) {
+						continuous[derivedFeature[c]] = derivedValues[row][fold * width + c];
+					}
+				}
+			}
+			examples.add(example.getID(), example.getIdentifier(), example.getOutput(), example.getDiscrete(), continuous);
+		}
+		return examples.build();
+	}
+}
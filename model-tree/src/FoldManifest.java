@@ -0,0 +1,316 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/*
+ * Assigns the rows of one master data file to cross-validation folds, so
+ * the folds don't have to be written out as one training and one test
+ * file each. Tab-separated text:
+ *
+ *   data     master data file, relative to the manifest
+ *   id       column of the master file identifying a row
+ *   seed     seed the folds were drawn with, 0 if unknown
+ *   folds    number of folds
+ *   derived  comma-separated columns whose values differ per fold, or nothing
+ *
+ * then one line per row: its identifier, its fold and, for each fold in
+ * turn, its values of the derived columns in that fold. Derived columns
+ * hold values computed from a fold's training rows, like the people
+ * scores of GenerateScoredFolds. Rows of the master file without a line
+ * are left out of every fold.
+ */
+public class FoldManifest {
+	private final String data;
+	private final int idIndex;
+	private final long seed;
+	private final int foldCount;
+	private final int[] derived; // columns of the master file replaced per fold
+	private final String[] ids; // identifier of each row
+	private final int[] folds; // fold of each row
+	private final String[][] values; // per row; derived values, fold after fold
+	
+	/*
+	 * @param data master data file, relative to the manifest
+	 * @param idIndex column of the master file identifying a row
+	 * @param seed seed the folds were drawn with, or 0 if unknown
+	 * @param foldCount number of folds
+	 * @param derived columns whose values differ per fold
+	 * @param ids identifier of each row
+	 * @param folds fold of each row
+	 * @param values derived values of each row, fold after fold; null if nothing is derived
+	 */
+	public FoldManifest(String data, int idIndex, long seed, int foldCount, int[] derived, String[] ids, int[] folds, String[][] values) {
+		this.data = data;
+		this.idIndex = idIndex;
+		this.seed = seed;
+		this.foldCount = foldCount;
+		this.derived = derived;
+		this.ids = ids;
+		this.folds = folds;
+		this.values = values;
+	}
+	
+	public String getData() {
+		return data;
+	}
+	
+	public int getIDIndex() {
+		return idIndex;
+	}
+	
+	public long getSeed() {
+		return seed;
+	}
+	
+	public int getFoldCount() {
+		return foldCount;
+	}
+	
+	public int[] getDerived() {
+		return derived;
+	}
+	
+	public int size() {
+		return ids.length;
+	}
+	
+	public String getID(int row) {
+		return ids[row];
+	}
+	
+	public int[] getFolds() {
+		return folds;
+	}
+	
+	/*
+	 * @param row row of the manifest
+	 * @param fold fold whose value to get
+	 * @param column position of the column in getDerived()
+	 * @return value of the derived column in the fold, as written
+	 */
+	public String getValue(int row, int fold, int column) {
+		return values[row][fold * derived.length + column];
+	}
+	
+	/*
+	 * @param file manifest to read
+	 * @return the manifest
+	 */
+	public static FoldManifest read(File file) throws FileNotFoundException, ParseException {
+		Scanner scanner = new Scanner(file);
+		try {
+			String data = header(scanner, "data", 0);
+			int idIndex = Integer.parseInt(header(scanner, "id", 1));
+			long seed = Long.parseLong(header(scanner, "seed", 2));
+			int foldCount = Integer.parseInt(header(scanner, "folds", 3));
+			String list = header(scanner, "derived", 4);
+			int[] derived = list.length() == 0 ? new int[0] : GridSearch.parseInts(list);
+			
+			int width = 2 + foldCount * derived.length;
+			List<String> ids = new ArrayList<String>();
+			List<Integer> folds = new ArrayList<Integer>();
+			List<String[]> values = new ArrayList<String[]>();
+			int line = 5;
+			while (scanner.hasNextLine()) {
+				String[] row = scanner.nextLine().split("\t");
+				if (row.length != width) {
+					throw new ParseException("Row has " + row.length + " columns, expected " + width, line);
+				}
+				ids.add(row[0]);
+				folds.add(Integer.parseInt(row[1]));
+				String[] value = new String[width - 2];
+				System.arraycopy(row, 2, value, 0, value.length);
+				values.add(value);
+				line++;
+			}
+			
+			int[] fold = new int[folds.size()];
+			for (int i = 0; i < fold.length; i++) {
+				fold[i] = folds.get(i);
+			}
+			return new FoldManifest(data, idIndex, seed, foldCount, derived, ids.toArray(new String[ids.size()]), fold,
+				derived.length == 0 ? null : values.toArray(new String[values.size()][]));
+		} finally {
+			scanner.close();
+		}
+	}
+	
+	/*
+	 * @param scanner manifest being read
+	 * @param key expected key of the next line
+	 * @param line number of the line
+	 * @return value of the line, empty if it has none
+	 */
+	private static String header(Scanner scanner, String key, int line) throws ParseException {
+		if (!scanner.hasNextLine()) {
+			throw new ParseException("Missing " + key + " line", line);
+		}
+		String[] header = scanner.nextLine().split("\t", 2);
+		if (!header[0].equals(key)) {
+			throw new ParseException("Expected " + key + ", got " + header[0], line);
+		}
+		return header.length > 1 ? header[1] : "";
+	}
+	
+	/*
+	 * @param file file to write the manifest to
+	 */
+	public void write(File file) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+		try {
+			bw.write("data\t" + data + "\n");
+			bw.write("id\t" + idIndex + "\n");
+			bw.write("seed\t" + seed + "\n");
+			bw.write("folds\t" + foldCount + "\n");
+			String list = "";
+			for (int i = 0; i < derived.length; i++) {
+				list += (i > 0 ? "," : "") + derived[i];
+			}
+			bw.write("derived\t" + list + "\n");
+			for (int row = 0; row < ids.length; row++) {
+				StringBuilder line = new StringBuilder(ids[row]).append('\t').append(folds[row]);
+				if (values != null) {
+					for (String value : values[row]) {
+						line.append('\t').append(value);
+					}
+				}
+				bw.write(line.append('\n').toString());
+			}
+		} finally {
+			bw.close();
+		}
+	}
+	
+	/*
+	 * Converts folds written out as pre-split files into a manifest. The
+	 * test files, in order of their fold, make up the rows; each training
+	 * file has to hold the rows of the other test files. Columns that are
+	 * not derived have to match the master file.
+	 * @param args prefix of the fold files (the files are prefix-{fold}-train.txt
+	 * and prefix-{fold}-test.txt), number of folds, master data file, column
+	 * identifying a row, comma-separated derived columns (or "") and the
+	 * manifest to write
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 6) {
+			System.out.println("usage: FoldManifest prefix folds master id derived manifest");
+			return;
+		}
+		String prefix = args[0];
+		int foldCount = Integer.parseInt(args[1]);
+		File master = new File(args[2]);
+		int idIndex = Integer.parseInt(args[3]);
+		int[] derived = args[4].length() == 0 ? new int[0] : GridSearch.parseInts(args[4]);
+		File output = new File(args[5]);
+		
+		Map<String, String[]> rows = readRows(master, idIndex);
+		
+		// the test files give the rows and their folds
+		List<String[]> order = new ArrayList<String[]>();
+		List<Integer> folds = new ArrayList<Integer>();
+		Map<String, Integer> position = new HashMap<String, Integer>();
+		for (int fold = 0; fold < foldCount; fold++) {
+			Scanner scanner = new Scanner(new File(prefix + "-" + fold + "-test.txt"));
+			while (scanner.hasNextLine()) {
+				String[] example = scanner.nextLine().split("\t");
+				if (position.put(example[idIndex], order.size()) != null) {
+					throw new ParseException("Row " + example[idIndex] + " is in more than one test file", fold);
+				}
+				order.add(example);
+				folds.add(fold);
+			}
+			scanner.close();
+		}
+		
+		String[][] values = derived.length == 0 ? null : new String[order.size()][foldCount * derived.length];
+		String[] ids = new String[order.size()];
+		int[] fold = new int[order.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = order.get(i)[idIndex];
+			fold[i] = folds.get(i);
+		}
+		for (int f = 0; f < foldCount; f++) {
+			// a row's value in a fold comes from the one file of the fold holding it
+			String[] files = {prefix + "-" + f + "-test.txt", prefix + "-" + f + "-train.txt"};
+			int count = 0;
+			for (String name : files) {
+				Scanner scanner = new Scanner(new File(name));
+				while (scanner.hasNextLine()) {
+					String[] example = scanner.nextLine().split("\t");
+					Integer row = position.get(example[idIndex]);
+					String[] original = rows.get(example[idIndex]);
+					if (row == null || original == null) {
+						throw new ParseException("Row " + example[idIndex] + " of " + name + " is not in every fold", count);
+					}
+					check(example, original, derived, name + " row " + example[idIndex]);
+					for (int c = 0; c < derived.length; c++) {
+						values[row][f * derived.length + c] = example[derived[c]];
+					}
+					count++;
+				}
+				scanner.close();
+			}
+			if (count != ids.length) {
+				throw new ParseException("Fold " + f + " has " + count + " rows, expected " + ids.length, f);
+			}
+		}
+		
+		String data = output.getAbsoluteFile().toPath().getParent().relativize(master.getAbsoluteFile().toPath()).toString();
+		new FoldManifest(data, idIndex, 0, foldCount, derived, ids, fold, values).write(output);
+		System.out.println("wrote " + ids.length + " rows of " + rows.size() + " to " + output);
+	}
+	
+	/*
+	 * Checks that a row of a fold file only differs from the master file
+	 * in the derived columns.
+	 * @param example row of the fold file
+	 * @param original same row of the master file
+	 * @param derived columns that may differ
+	 * @param where file and row, for the error message
+	 */
+	private static void check(String[] example, String[] original, int[] derived, String where) throws ParseException {
+		if (example.length != original.length) {
+			throw new ParseException(where + " has " + example.length + " columns, expected " + original.length, 0);
+		}
+		for (int i = 0; i < example.length; i++) {
+			boolean isDerived = false;
+			for (int column : derived) {
+				isDerived |= column == i;
+			}
+			if (!isDerived && !example[i].equals(original[i])) {
+				throw new ParseException(where + " differs from the master file in column " + i, i);
+			}
+		}
+	}
+	
+	/*
+	 * @param file data file
+	 * @param idIndex column identifying a row
+	 * @return columns of each line, by identifier
+	 */
+	static Map<String, String[]> readRows(File file, int idIndex) throws FileNotFoundException, ParseException {
+		Map<String, String[]> rows = new HashMap<String, String[]>();
+		Scanner scanner = new Scanner(file);
+		try {
+			int line = 0;
+			while (scanner.hasNextLine()) {
+				String[] example = scanner.nextLine().split("\t");
+				if (rows.put(example[idIndex], example) != null) {
+					throw new ParseException("Row " + example[idIndex] + " is in " + file + " twice", line);
+				}
+				line++;
+			}
+		} finally {
+			scanner.close();
+		}
+		return rows;
+	}
+}
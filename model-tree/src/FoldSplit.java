@@ -0,0 +1,151 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Splits rows into k folds for cross-validation without copying them per
+ * fold. The rows are kept once, fold after fold; fold f tests the range
+ * [getTestStart(f), getTestEnd(f)) of getRows() and trains on the rest.
+ * Fold sizes differ by at most one row unless the folds are given.
+ */
+public class FoldSplit {
+	private final int[] rows; // row indices, fold after fold
+	private final int[] start; // start of each fold in rows, then rows.length
+	private final long seed;
+	
+	/*
+	 * Splits rows in their current order, e.g. for a file that is
+	 * already shuffled.
+	 * @param rows row indices to split
+	 * @param k number of folds
+	 */
+	public FoldSplit(int[] rows, int k) {
+		this.rows = Arrays.copyOf(rows, rows.length);
+		this.start = bounds(rows.length, k);
+		this.seed = 0;
+	}
+	
+	/*
+	 * Splits rows after shuffling them. The same seed gives the same folds.
+	 * @param rows row indices to split
+	 * @param k number of folds
+	 * @param seed seed of the shuffle
+	 */
+	public FoldSplit(int[] rows, int k, long seed) {
+		this.rows = Arrays.copyOf(rows, rows.length);
+		this.start = bounds(rows.length, k);
+		this.seed = seed;
+		Random random = new Random(seed);
+		for (int i = this.rows.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int temp = this.rows[i];
+			this.rows[i] = this.rows[j];
+			this.rows[j] = temp;
+		}
+	}
+	
+	/*
+	 * Splits rows by a fold given for each row, e.g. as read from a
+	 * FoldManifest. Rows of a fold keep their order.
+	 * @param rows row indices to split
+	 * @param fold fold of each row
+	 * @param k number of folds
+	 * @param seed seed the folds were drawn with, or 0 if unknown
+	 */
+	public FoldSplit(int[] rows, int[] fold, int k, long seed) {
+		if (fold.length != rows.length) {
+			throw new IllegalArgumentException("Got " + fold.length + " folds for " + rows.length + " rows");
+		}
+		int[] start = new int[k + 1];
+		for (int f : fold) {
+			if (f < 0 || f >= k) {
+				throw new IllegalArgumentException("Fold " + f + " is not one of " + k + " folds");
+			}
+			start[f + 1]++;
+		}
+		for (int f = 0; f < k; f++) {
+			if (start[f + 1] == 0) {
+				throw new IllegalArgumentException("Fold " + f + " has no rows");
+			}
+			start[f + 1] += start[f];
+		}
+		
+		int[] next = Arrays.copyOf(start, k);
+		this.rows = new int[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			this.rows[next[fold[i]]++] = rows[i];
+		}
+		this.start = start;
+		this.seed = seed;
+	}
+	
+	/*
+	 * @param count number of rows
+	 * @param k number of folds
+	 * @return start of each fold, then count
+	 */
+	private static int[] bounds(int count, int k) {
+		if (k < 1 || k > count) {
+			throw new IllegalArgumentException("Cannot split " + count + " rows into " + k + " folds");
+		}
+		int[] start = new int[k + 1];
+		for (int f = 0; f <= k; f++) {
+			start[f] = (int) ((long) f * count / k);
+		}
+		return start;
+	}
+	
+	public int getFoldCount() {
+		return start.length - 1;
+	}
+	
+	/*
+	 * @return seed the rows were shuffled with, or 0 if they kept their order
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/*
+	 * @return row indices, fold after fold; shared, so callers must not change it
+	 */
+	public int[] getRows() {
+		return rows;
+	}
+	
+	/*
+	 * @param fold fold index
+	 * @return start of the fold's test rows in getRows()
+	 */
+	public int getTestStart(int fold) {
+		return start[fold];
+	}
+	
+	/*
+	 * @param fold fold index
+	 * @return end of the fold's test rows in getRows()
+	 */
+	public int getTestEnd(int fold) {
+		return start[fold + 1];
+	}
+	
+	public int getTestSize(int fold) {
+		return start[fold + 1] - start[fold];
+	}
+	
+	public int getTrainingSize(int fold) {
+		return rows.length - getTestSize(fold);
+	}
+	
+	/*
+	 * Copies the training rows of a fold for a caller that reorders them,
+	 * as ModelTree does while partitioning.
+	 * @param fold fold index
+	 * @return rows of every other fold, in order
+	 */
+	public int[] getTrainingRows(int fold) {
+		int[] train = new int[getTrainingSize(fold)];
+		System.arraycopy(rows, 0, train, 0, start[fold]);
+		System.arraycopy(rows, start[fold + 1], train, start[fold], rows.length - start[fold + 1]);
+		return train;
+	}
+}
@@ -1,8 +1,5 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -14,19 +11,6 @@ import java.util.Scanner;
 public class GenerateScoredFolds {
 	private static int[] onlyTestCount = new int[3];
 	
-	/*
-	 * Shuffles the elements in a list.
-	 * @param list list to shuffle
-	 */
-	public static void randomize(List<List<String>> list) {
-		for (int i = list.size() - 1; i > 0; i--) {
-			int rand = (int)( Math.random() * i );
-			List<String> temp = list.get(i);
-			list.set(i, list.get(rand));
-			list.set(rand, temp);
-		}
-	}
-	
 	/*
 	 * @param examples list to average
 	 * @return average of list
@@ -40,39 +24,29 @@ public class GenerateScoredFolds {
 	}
 	
 	/*
-	 * Splits a list into k distinct subsets in preparation for
-	 * k-fold validation.
-	 * @param list list to split
-	 * @param k number of distinct subsets
-	 * @return k distinct subsets
-	 */
-	public static List<List<List<String>>> splitList(List<List<String>> list, int k) {
-		List<List<List<String>>> subsets = new ArrayList<List<List<String>>>();
-		int size = list.size() / k; //5
-		for (int i = 0; i < k; i++) {
-			int max = (i + 1) * size - 1;
-			if (i == k - 1) {
-				// our last subset is probably going to bigger
-				max = list.size() - 1;
-			}
-			subsets.add( list.subList(i * size, max) );
-		}
-		return subsets;
-	}
-	
-	/*
-	 * Replaces the nominal values of a specified attribute with a calculated score 
+	 * Calculates the score of a specified attribute for a range of examples,
+	 * leaving the examples unchanged.
+	 * @param examples all examples
+	 * @param rows example indices
+	 * @param from start of the examples to score
+	 * @param to end of the examples to score
+	 * @param ratings ratings of each person in the training set, by attribute
+	 * @param attr attribute to score
+	 * @return score of each example in the range
 	 */
-	public static List<List<String>> replaceScore(List<List<String>> examples, List<Map<String, List<Double>>> ratings, int attr) {
-		return replaceScore(examples, ratings, attr, -1, -1, -1);
+	public static double[] scores(List<List<String>> examples, int[] rows, int from, int to, List<Map<String, List<Double>>> ratings, int attr) {
+		return scores(examples, rows, from, to, ratings, attr, -1, -1, -1);
 	}
 	
 	/*
-	 * Replaces the nominal values of a specified attribute with a calculated score
+	 * Calculates the normalized score of a specified attribute for a range
+	 * of examples, leaving the examples unchanged. People missing from the
+	 * training set are skipped; an example with none left gets the average.
 	 */
-	public static List<List<String>> replaceScore(List<List<String>> examples, List<Map<String, List<Double>>> ratings, int attr, double average, double min, double max) {
-		for (int i = 0; i < examples.size(); i++) {
-			List<String> example = examples.get(i);
+	public static double[] scores(List<List<String>> examples, int[] rows, int from, int to, List<Map<String, List<Double>>> ratings, int attr, double average, double min, double max) {
+		double[] result = new double[to - from];
+		for (int i = from; i < to; i++) {
+			List<String> example = examples.get(rows[i]);
 			
 			// find our scores for each person
 			String[] temp = example.get(attr).split(",");
@@ -107,10 +81,9 @@ public class GenerateScoredFolds {
 				onlyTestCount[attr - 4]++;
 			}
 			
-			// replace this aggregated score with nominal values
-			example.set(attr, String.valueOf(calcScore(myScores)));
+			result[i - from] = calcScore(myScores);
 		}
-		return examples;
+		return result;
 	}
 	
 	/*
@@ -146,14 +119,16 @@ public class GenerateScoredFolds {
 	
 	/*
 	 * Calculates the score on the test dataset
-	 * @param testset test dataset
+	 * @param examples all examples
+	 * @param rows indices of the examples in the dataset
 	 * @param index 0:actor, 1:director, 2:writer
 	 */
-	public static Map<String, List<Double>> buildMap(List<List<String>> testset, int index) {
+	public static Map<String, List<Double>> buildMap(List<List<String>> examples, int[] rows, int index) {
 		Map<String, List<Double>> scores = new HashMap<String, List<Double>>();
 		
 		int count = 0;
-		for (List<String> example : testset) {
+		for (int row : rows) {
+			List<String> example = examples.get(row);
 			String[] people = example.get(index).split(",");
 			for (String person : people) {
 				double rating = Double.parseDouble(example.get(2));
@@ -173,10 +148,11 @@ public class GenerateScoredFolds {
 	public static void main(String[] args) {
 		final String INPUT = "../data-collection/datasets/clean/clean_data_5000.txt";
 		final int FOLDS = 10;
+		final long SEED = 5000; // seed of the shuffle, so the folds can be generated again; also names the output
+		
+		final int[] SCORED = {4, 5, 6}; // actor, director and writer scores
 		
 		List<List<String>> examples = new ArrayList<List<String>>();
-		BufferedWriter bw;
-		File file;
 		
 		try {			
 			// open our input file
@@ -192,52 +168,43 @@ public class GenerateScoredFolds {
 				examples.add(Arrays.asList(scan.nextLine().split("\t")));
 			}
 			
-			randomize(examples);
+			// shuffle once; every fold is a range of the same permutation
+			int[] all = new int[examples.size()];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			FoldSplit split = new FoldSplit(all, FOLDS, SEED);
+			int[] rows = split.getRows();
 			
-			// generate k training and test datasets
-			List<List<List<String>>> subsets = splitList(examples, FOLDS);
-			for (int test = 0; test < subsets.size(); test++) {
+			// scores of each row in each fold, by position in rows
+			String[][] values = new String[rows.length][FOLDS * SCORED.length];
+			
+			// score the training and test rows of each fold
+			for (int test = 0; test < split.getFoldCount(); test++) {
 				//onlyTestCount = new int[3];
 				
-				// create our training set
-				List<List<String>> trainSet = new ArrayList<List<String>>();
-				for (int i = 0; i < subsets.size(); i++) {
-					if (i != test) {
-						for (List<String> a : subsets.get(i)) {
-							List<String> values = new ArrayList<String>();
-							for (String b : a) {
-								values.add(b);
-							}
-							trainSet.add(values);
-						}
-					}
-				}
-				
-				// get our test set
-				List<List<String>> testSet = new ArrayList<List<String>>();
-				for (List<String> item : subsets.get(test)) {
-					List<String> values = new ArrayList<String>();
-					for (String b : item) {
-						values.add(b);
-					}
-					testSet.add(values);
-				}
+				// index our training set
+				int[] train = split.getTrainingRows(test);
+				int from = split.getTestStart(test);
+				int to = split.getTestEnd(test);
 				
 				// get our ratings from the training set
-				List<Map<String, List<Double>>> ratings = Arrays.asList(buildMap(trainSet, 4), buildMap(trainSet, 5), buildMap(trainSet, 6));
+				List<Map<String, List<Double>>> ratings = Arrays.asList(buildMap(examples, train, 4), buildMap(examples, train, 5), buildMap(examples, train, 6));
 				
 				// calculate the scores for our training set
+				double[][] trainScores = new double[3][];
 				for (int j = 4; j <= 6; j++) {
-					trainSet = replaceScore(trainSet, ratings, j);
+					trainScores[j - 4] = scores(examples, train, 0, train.length, ratings, j);
 				}
 				
 				// find the average score for examples in the training set
 				double[] averages = new double[3];
 				double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
 				double[] max = {Double.MIN_VALUE, Double.MIN_VALUE, Double.MIN_VALUE};
-				for (List<String> example : trainSet) {
+				for (int e = 0; e < train.length; e++) {
+					List<String> example = examples.get(train[e]);
 					for (int i = 4; i <= 6; i++) {
-						double temp = Double.parseDouble(example.get(i));
+						double temp = trainScores[i - 4][e];
 						averages[i - 4] += Double.parseDouble(example.get(2));
 						if (temp < min[i - 4]) {
 							min[i - 4] = temp;
@@ -248,39 +215,48 @@ public class GenerateScoredFolds {
 					}
 				}
 				for (int i = 0; i < 3; i++) {
-					averages[i] /= trainSet.size();
+					averages[i] /= train.length;
 				}
 				
 				// normalize scores
-				for (List<String> example : trainSet) {
+				for (int e = 0; e < train.length; e++) {
 					for (int i = 4; i <= 6; i++) {
-						double temp = Double.parseDouble(example.get(i));
-						example.set( i, String.valueOf((temp - min[i - 4]) / (max[i - 4] - min[i - 4])) );
+						double temp = trainScores[i - 4][e];
+						trainScores[i - 4][e] = (temp - min[i - 4]) / (max[i - 4] - min[i - 4]);
 					}
 				}
 				
 				// calculate the scores for our test set
+				double[][] testScores = new double[3][];
 				for (int j = 4; j <= 6; j++) {
-					replaceScore(testSet, ratings, j, averages[j - 4], min[j - 4], max[j - 4]);
+					testScores[j - 4] = scores(examples, rows, from, to, ratings, j, averages[j - 4], min[j - 4], max[j - 4]);
 				}
 				
-				// write stuff to files
-				file = new File(path + filename + "-score-subsets/" + filename + "-" + test + "-train.txt" );
-				file.getParentFile().mkdirs();
-				bw = new BufferedWriter(new FileWriter(file));
-				for (List<String> example : trainSet) {
-					bw.write(Parse.createLine(example));
+				// keep the fold's scores; training rows surround the test range in rows
+				for (int e = 0; e < train.length; e++) {
+					int position = e < from ? e : e + to - from;
+					for (int i = 0; i < 3; i++) {
+						values[position][test * SCORED.length + i] = String.valueOf(trainScores[i][e]);
+					}
 				}
-				bw.close();
-				
-				file = new File(path + filename + "-score-subsets/" + filename + "-" + test + "-test.txt" );
-				//file.getParentFile().mkdirs();
-				bw = new BufferedWriter(new FileWriter(file));
-				for (List<String> example : testSet) {
-					bw.write(Parse.createLine(example));
+				for (int e = from; e < to; e++) {
+					for (int i = 0; i < 3; i++) {
+						values[e][test * SCORED.length + i] = String.valueOf(testScores[i][e - from]);
+					}
+				}
+			}
+			
+			// write one manifest next to the input instead of a training and test file per fold,
+			// named after the seed so clean_data_5000-folds.txt (the original folds, seed 0) is kept
+			String[] ids = new String[rows.length];
+			int[] folds = new int[rows.length];
+			for (int fold = 0; fold < split.getFoldCount(); fold++) {
+				for (int e = split.getTestStart(fold); e < split.getTestEnd(fold); e++) {
+					ids[e] = examples.get(rows[e]).get(1);
+					folds[e] = fold;
 				}
-				bw.close();
 			}
+			new FoldManifest(input.getName(), 1, SEED, FOLDS, SCORED, ids, folds, values).write(new File(path + filename + "-folds-seed" + SEED + ".txt"));
 			
 			for (int i = 0; i < 3; i++) {
 				System.out.println(onlyTestCount[i] / 10);
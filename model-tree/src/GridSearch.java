@@ -0,0 +1,325 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Cross-validates every setting of a grid over the stopping rule. Each
+ * (setting, fold) pair is one task on the common fork/join pool, the
+ * same pool the trees fork their subtrees on, so idle threads steal
+ * subtrees of slow folds once the short folds are done.
+ */
+public class GridSearch {
+	private final List<Feature> features;
+	private final Dataset data;
+	private final FoldSplit split;
+	
+	/*
+	 * @param features discrete features to split on
+	 * @param data dataset holding every row
+	 * @param split folds of the dataset
+	 */
+	public GridSearch(List<Feature> features, Dataset data, FoldSplit split) {
+		this.features = features;
+		this.data = data;
+		this.split = split;
+	}
+	
+	/*
+	 * @param subsetSizes minimum subset sizes to try
+	 * @param deviations minimum deviations to try
+	 * @return every combination, subset size major
+	 */
+	public static List<Parameters> grid(int[] subsetSizes, double[] deviations) {
+		List<Parameters> grid = new ArrayList<Parameters>();
+		for (int size : subsetSizes) {
+			for (double deviation : deviations) {
+				grid.add(new Parameters(size, deviation));
+			}
+		}
+		return grid;
+	}
+	
+	public int getFoldCount() {
+		return split.getFoldCount();
+	}
+	
+	/*
+	 * Trains and evaluates every setting on every fold.
+	 * @param grid settings to try
+	 * @return results in the order of the grid
+	 */
+	public List<Cell> run(List<Parameters> grid) throws Exception {
+		return run(grid, 0, split.getFoldCount());
+	}
+	
+	/*
+	 * Trains and evaluates every setting on some of the folds.
+	 * @param grid settings to try
+	 * @param from first fold to evaluate
+	 * @param to end of the folds to evaluate
+	 * @return results in the order of the grid, for folds [from, to)
+	 */
+	public List<Cell> run(List<Parameters> grid, int from, int to) throws Exception {
+		final List<FoldTask> tasks = new ArrayList<FoldTask>();
+		for (Parameters parameters : grid) {
+			for (int fold = from; fold < to; fold++) {
+				tasks.add(new FoldTask(parameters, fold));
+			}
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		
+		List<Cell> cells = new ArrayList<Cell>();
+		int task = 0;
+		for (Parameters parameters : grid) {
+			double[] rms = new double[to - from];
+			double[] normRMS = new double[to - from];
+			for (int i = 0; i < to - from; i++) {
+				Evaluate eval = tasks.get(task++).getEvaluation();
+				rms[i] = eval.getRMS();
+				normRMS[i] = eval.getNormRMS();
+			}
+			cells.add(new Cell(parameters, rms, normRMS));
+		}
+		return cells;
+	}
+	
+	/*
+	 * Trains one tree per fold with the loosest thresholds of the grid and
+	 * derives the trees for the other settings by collapsing nodes. The
+	 * results are those of run, except for rounding in the leaf fits.
+	 * @param grid settings to try; they must share one ridge penalty
+	 * @return results in the order of the grid
+	 */
+	public List<Cell> sweep(final List<Parameters> grid) throws Exception {
+		int minSubsetSize = Integer.MAX_VALUE;
+		double minDeviation = Double.POSITIVE_INFINITY;
+		for (Parameters parameters : grid) {
+			minSubsetSize = Math.min(minSubsetSize, parameters.getMinSubsetSize());
+			minDeviation = Math.min(minDeviation, parameters.getMinDeviation());
+		}
+		Parameters first = grid.get(0);
+		final Parameters loosest = new Parameters(minSubsetSize, minDeviation, first.getRidge(), first.getParallelThreshold());
+		for (Parameters parameters : grid) {
+			if (parameters.getRidge() != loosest.getRidge()) {
+				throw new IllegalArgumentException("Settings in a sweep must share one ridge penalty");
+			}
+		}
+		
+		final List<SweepTask> tasks = new ArrayList<SweepTask>();
+		for (int fold = 0; fold < split.getFoldCount(); fold++) {
+			tasks.add(new SweepTask(grid, loosest, fold));
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		
+		List<Cell> cells = new ArrayList<Cell>();
+		for (int c = 0; c < grid.size(); c++) {
+			double[] rms = new double[split.getFoldCount()];
+			double[] normRMS = new double[split.getFoldCount()];
+			for (int fold = 0; fold < split.getFoldCount(); fold++) {
+				Evaluate eval = tasks.get(fold).getEvaluations()[c];
+				rms[fold] = eval.getRMS();
+				normRMS[fold] = eval.getNormRMS();
+			}
+			cells.add(new Cell(grid.get(c), rms, normRMS));
+		}
+		return cells;
+	}
+	
+	/*
+	 * @param cells results of a search
+	 * @return one line per setting, with a header
+	 */
+	public static String format(List<Cell> cells) {
+		String result = "subset\tdeviation\trms\tnorm rms\n";
+		for (Cell cell : cells) {
+			result += cell + "\n";
+		}
+		return result;
+	}
+	
+	/*
+	 * @param list comma-separated integers
+	 * @return the integers in order
+	 */
+	static int[] parseInts(String list) {
+		String[] values = list.split(",");
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = Integer.parseInt(values[i].trim());
+		}
+		return result;
+	}
+	
+	/*
+	 * @param list comma-separated numbers
+	 * @return the numbers in order
+	 */
+	static double[] parseDoubles(String list) {
+		String[] values = list.split(",");
+		double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = Double.parseDouble(values[i].trim());
+		}
+		return result;
+	}
+	
+	/*
+	 * Sweeps a grid over the 5000 movie data set with 10 folds, training
+	 * one tree per fold.
+	 * @param args comma-separated minimum subset sizes and minimum deviations
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] subsetSizes = {4, 10, 20, 40, 80};
+		double[] deviations = {0, 0.5, 1, 2};
+		if (args.length > 0) {
+			subsetSizes = parseInts(args[0]);
+		}
+		if (args.length > 1) {
+			deviations = parseDoubles(args[1]);
+		}
+		
+		Configuration config = Parse.parseConfigFile("config/config.txt", "../data-collection/datasets/usa/USA_config_5000.txt");
+		Dataset data = Parse.parseDataFile("../data-collection/datasets/usa/usa_data_5000.txt", 1, 2, config.getDiscrete(), config.getContinuous());
+		GridSearch search = new GridSearch(config.getDiscrete(), data, new FoldSplit(data.rows(), 10));
+		
+		long start = System.nanoTime();
+		List<Cell> cells = search.sweep(grid(subsetSizes, deviations));
+		System.out.print(format(cells));
+		System.out.println("searched " + cells.size() + " settings in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+	
+	/*
+	 * Cross-validation results of one setting.
+	 */
+	public static class Cell {
+		private final Parameters parameters;
+		private final double[] rms;
+		private final double[] normRMS;
+		
+		/*
+		 * @param parameters setting that was evaluated
+		 * @param rms root mean square error of each fold
+		 * @param normRMS normalized root mean square error of each fold
+		 */
+		public Cell(Parameters parameters, double[] rms, double[] normRMS) {
+			this.parameters = parameters;
+			this.rms = rms;
+			this.normRMS = normRMS;
+		}
+		
+		public Parameters getParameters() {
+			return parameters;
+		}
+		
+		public double[] getRMS() {
+			return rms;
+		}
+		
+		public double[] getNormRMS() {
+			return normRMS;
+		}
+		
+		public double getMeanRMS() {
+			return ModelTreeTest.average(rms);
+		}
+		
+		public double getMeanNormRMS() {
+			return ModelTreeTest.average(normRMS);
+		}
+		
+		public String toString() {
+			return parameters + "\t" + getMeanRMS() + "\t" + getMeanNormRMS();
+		}
+	}
+	
+	/*
+	 * Trains one loose tree on every fold but one and evaluates the tree
+	 * derived for each setting on the one left out.
+	 */
+	private class SweepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<Parameters> grid;
+		private final Parameters loosest;
+		private final int fold;
+		private Evaluate[] evaluations;
+		private Exception error;
+		
+		/*
+		 * @param grid settings to evaluate
+		 * @param loosest settings covering every setting of the grid
+		 * @param fold index of the test fold
+		 */
+		public SweepTask(List<Parameters> grid, Parameters loosest, int fold) {
+			this.grid = grid;
+			this.loosest = loosest;
+			this.fold = fold;
+		}
+		
+		protected void compute() {
+			try {
+				ModelTree tree = new ModelTree(features, data, split, fold, loosest, true);
+				PrunePath path = tree.getPrunePath();
+				evaluations = new Evaluate[grid.size()];
+				for (int c = 0; c < grid.size(); c++) {
+					evaluations[c] = new Evaluate(new Predictor(path.derive(grid.get(c)), data), split, fold);
+				}
+			} catch (Exception e) {
+				error = e;
+			}
+		}
+		
+		public Evaluate[] getEvaluations() throws Exception {
+			if (error != null) {
+				throw error;
+			}
+			return evaluations;
+		}
+	}
+	
+	/*
+	 * Trains on every fold but one and evaluates on the one left out.
+	 * Errors are kept for the thread collecting the results, as in
+	 * ModelTree's subtree tasks.
+	 */
+	private class FoldTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Parameters parameters;
+		private final int fold;
+		private Evaluate evaluation;
+		private Exception error;
+		
+		/*
+		 * @param parameters setting to train with
+		 * @param fold index of the test fold
+		 */
+		public FoldTask(Parameters parameters, int fold) {
+			this.parameters = parameters;
+			this.fold = fold;
+		}
+		
+		protected void compute() {
+			try {
+				ModelTree tree = new ModelTree(features, data, split, fold, parameters);
+				evaluation = new Evaluate(tree.getPredictor(data), split, fold);
+			} catch (Exception e) {
+				error = e;
+			}
+		}
+		
+		public Evaluate getEvaluation() throws Exception {
+			if (error != null) {
+				throw error;
+			}
+			return evaluation;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+import java.util.Arrays;
+
+public class LeastSquares {
+	private final int size; // number of continuous features
+	private int count;
+	private double[] sumX; // sum of each feature
+	private double sumY;
+	private double sumYY;
+	private double[] xtx; // size x size, row major
+	private double[] xty;
+	
+	/*
+	 * Creates empty least-squares statistics.
+	 * @param size number of continuous features
+	 */
+	public LeastSquares(int size) {
+		this.size = size;
+		count = 0;
+		sumX = new double[size];
+		sumY = 0;
+		sumYY = 0;
+		xtx = new double[size * size];
+		xty = new double[size];
+	}
+	
+	/*
+	 * @return independent copy of these statistics
+	 */
+	public LeastSquares copy() {
+		LeastSquares result = new LeastSquares(size);
+		result.add(this);
+		return result;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	/*
+	 * @return average output
+	 */
+	public double getMean() {
+		return sumY / count;
+	}
+	
+	/*
+	 * Adds one row of a dataset.
+	 * @param data dataset holding the row
+	 * @param row row index
+	 */
+	public void add(Dataset data, int row) {
+		double y = data.getOutput(row);
+		count++;
+		sumY += y;
+		sumYY += y * y;
+		for (int i = 0; i < size; i++) {
+			double xi = data.getContinuous(i, row);
+			sumX[i] += xi;
+			xty[i] += xi * y;
+			for (int j = i; j < size; j++) {
+				xtx[i * size + j] += xi * data.getContinuous(j, row);
+			}
+		}
+	}
+	
+	/*
+	 * Adds rows of a dataset.
+	 * @param data dataset holding the rows
+	 * @param rows row indices
+	 */
+	public void add(Dataset data, int[] rows) {
+		for (int row : rows) {
+			add(data, row);
+		}
+	}
+	
+	/*
+	 * Adds rows[from, to) of a dataset.
+	 * @param data dataset holding the rows
+	 * @param rows row indices
+	 * @param from start of the rows to add
+	 * @param to end of the rows to add
+	 */
+	public void add(Dataset data, int[] rows, int from, int to) {
+		for (int i = from; i < to; i++) {
+			add(data, rows[i]);
+		}
+	}
+	
+	/*
+	 * Adds the rows behind another set of statistics.
+	 * @param other statistics to add
+	 */
+	public void add(LeastSquares other) {
+		combine(other, 1);
+	}
+	
+	/*
+	 * Removes the rows behind another set of statistics, which must be a
+	 * subset of the rows behind these.
+	 * @param other statistics to subtract
+	 */
+	public void subtract(LeastSquares other) {
+		combine(other, -1);
+	}
+	
+	private void combine(LeastSquares other, int sign) {
+		count += sign * other.count;
+		sumY += sign * other.sumY;
+		sumYY += sign * other.sumYY;
+		for (int i = 0; i < size; i++) {
+			sumX[i] += sign * other.sumX[i];
+			xty[i] += sign * other.xty[i];
+		}
+		for (int i = 0; i < xtx.length; i++) {
+			xtx[i] += sign * other.xtx[i];
+		}
+	}
+	
+	/*
+	 * Sum of squared residuals of a linear model over the rows behind these
+	 * statistics, without visiting the rows.
+	 * @param weights weights with the intercept first
+	 * @return sum of (y - w0 - w1 x1 - ... - wn xn)^2
+	 */
+	public double residualSquares(double[] weights) {
+		double w0 = weights[0];
+		double result = sumYY - 2 * w0 * sumY + count * w0 * w0;
+		for (int i = 0; i < size; i++) {
+			double wi = weights[i + 1];
+			result += 2 * wi * (w0 * sumX[i] - xty[i]);
+			result += wi * wi * xtx[i * size + i];
+			for (int j = i + 1; j < size; j++) {
+				result += 2 * wi * weights[j + 1] * xtx[i * size + j];
+			}
+		}
+		return Math.max(result, 0);
+	}
+	
+	/*
+	 * Solves the least-squares problem y = w0 + w1 x1 + ... + wn xn.
+	 * The features are centered before solving so the intercept is not
+	 * penalized and large raw values (release_year) stay well conditioned.
+	 * A feature that is constant, or a linear combination of earlier
+	 * features, gets a weight of 0.
+	 * @param ridge ridge penalty relative to each feature's variance
+	 * @return weights with the intercept first
+	 */
+	public double[] solve(double ridge) {
+		double[] weights = new double[size + 1];
+		if (count == 0) {
+			weights[0] = Double.NaN;
+			return weights;
+		}
+		
+		// centered normal equations
+		double[] mean = new double[size];
+		for (int i = 0; i < size; i++) {
+			mean[i] = sumX[i] / count;
+		}
+		double meanY = sumY / count;
+		double[] a = new double[size * size];
+		double[] b = new double[size];
+		for (int i = 0; i < size; i++) {
+			for (int j = i; j < size; j++) {
+				double value = xtx[i * size + j] - count * mean[i] * mean[j];
+				a[i * size + j] = value;
+				a[j * size + i] = value;
+			}
+			a[i * size + i] *= 1 + ridge;
+			b[i] = xty[i] - count * mean[i] * meanY;
+		}
+		
+		double[] w = cholesky(a, b, size);
+		weights[0] = meanY;
+		for (int i = 0; i < size; i++) {
+			weights[i + 1] = w[i];
+			weights[0] -= w[i] * mean[i];
+		}
+		return weights;
+	}
+	
+	/*
+	 * Solves a x = b for a symmetric positive semi-definite matrix by
+	 * Cholesky decomposition. Columns whose pivot vanishes are dropped and
+	 * solved as 0, which is the same as leaving that variable out.
+	 * @param a n x n matrix, row major; overwritten with the factor
+	 * @param b right-hand side
+	 * @param n number of variables
+	 * @return solution x
+	 */
+	private static double[] cholesky(double[] a, double[] b, int n) {
+		boolean[] dropped = new boolean[n];
+		for (int j = 0; j < n; j++) {
+			double diagonal = a[j * n + j];
+			double pivot = diagonal;
+			for (int k = 0; k < j; k++) {
+				pivot -= a[j * n + k] * a[j * n + k];
+			}
+			if (!(diagonal > 0) || pivot <= 1e-10 * diagonal) {
+				dropped[j] = true;
+				for (int i = j; i < n; i++) {
+					a[i * n + j] = 0;
+				}
+				continue;
+			}
+			double root = Math.sqrt(pivot);
+			a[j * n + j] = root;
+			for (int i = j + 1; i < n; i++) {
+				double value = a[i * n + j];
+				for (int k = 0; k < j; k++) {
+					value -= a[i * n + k] * a[j * n + k];
+				}
+				a[i * n + j] = value / root;
+			}
+		}
+		
+		// forward substitution L z = b
+		double[] x = Arrays.copyOf(b, n);
+		for (int i = 0; i < n; i++) {
+			if (dropped[i]) {
+				x[i] = 0;
+				continue;
+			}
+			for (int k = 0; k < i; k++) {
+				x[i] -= a[i * n + k] * x[k];
+			}
+			x[i] /= a[i * n + i];
+		}
+		
+		// back substitution L^T x = z
+		for (int i = n - 1; i >= 0; i--) {
+			if (dropped[i]) {
+				x[i] = 0;
+				continue;
+			}
+			for (int k = i + 1; k < n; k++) {
+				x[i] -= a[k * n + i] * x[k];
+			}
+			x[i] /= a[i * n + i];
+		}
+		return x;
+	}
+}
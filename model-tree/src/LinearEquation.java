@@ -1,39 +1,42 @@
 
 public class LinearEquation {
-	private double[] weights;
-	private double[] input;
-	private double result;
+	private final double[] weights;
 	
+	/*
+	 * @param w weights with the intercept first
+	 */
 	public LinearEquation(double[] w) {
 		weights = w;
-		result = Double.NaN;
 	}
 	
-	public LinearEquation(double[] w, double[] x) {
-		if (w.length - 1 == x.length) {
-			weights = w;
-			input = x;
-			result = solve();
+	public double solve(double[] x) {
+		if (weights.length - 1 == x.length) {
+			double result = 0;
+			for (int i = 0; i < x.length; i++) {
+				result += weights[i + 1] * x[i];
+			}
+			return result + weights[0];
 		} else {
 			System.err.println("Invalid parameters to LinearEquation");
 			System.exit(1);
+			return Double.NaN;
 		}
 	}
 	
-	private double solve() {
-		double result = 0;
-		for (int i = 0; i < input.length; i++) {
-			result += weights[i + 1] * input[i];
-		}
-		result += weights[0];
-		return result;
-	}
-	
-	public double solve(double[] x) {
-		if (weights.length - 1 == x.length) {
-			input = x;
-			result = solve();
-			return result;
+	/*
+	 * Solves the equation for one row of a dataset without copying the
+	 * row's continuous values.
+	 * @param data dataset holding the row
+	 * @param row row index
+	 * @return equation result
+	 */
+	public double solve(Dataset data, int row) {
+		if (weights.length - 1 == data.getContinuousSize()) {
+			double result = 0;
+			for (int i = 1; i < weights.length; i++) {
+				result += weights[i] * data.getContinuous(i - 1, row);
+			}
+			return result + weights[0];
 		} else {
 			System.err.println("Invalid parameters to LinearEquation");
 			System.exit(1);
@@ -41,8 +44,8 @@ public class LinearEquation {
 		}
 	}
 	
-	public double getResult() {
-		return result;
+	public double[] getWeights() {
+		return weights;
 	}
 	
 	public String toString() {
@@ -0,0 +1,253 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Binary model file. All numbers are big-endian.
+ *
+ *   int      magic "M5MT"
+ *   int      version
+ *   int      discrete feature count, continuous feature count
+ *   int      node count, child count, weight count
+ *   int[]    split feature of each node, -1 for a leaf
+ *   int[]    child or weight offset of each node
+ *   int[]    child table
+ *            padding to a multiple of 8 bytes
+ *   double[] leaf weights
+ *            feature dictionary: for each continuous feature its old id
+ *            and name, then for each discrete feature its old id, name,
+ *            value count and values. Strings are an int byte length
+ *            followed by UTF-8.
+ *
+ * The arrays come first so they start at fixed offsets and are copied
+ * out of the mapped file in bulk.
+ */
+public class ModelFile {
+	public static final int MAGIC = 0x4D354D54; // "M5MT"
+	public static final int VERSION = 1;
+	private static final int HEADER = 7 * 4;
+	
+	/*
+	 * Writes a trained tree.
+	 * @param tree trained tree
+	 * @param file file to write
+	 */
+	public static void write(FlatTree tree, File file) throws IOException {
+		List<Feature> discrete = tree.getDiscreteFeatures();
+		List<Feature> continuous = tree.getContinuousFeatures();
+		int nodeCount = tree.getNodeCount();
+		int[] feature = new int[nodeCount];
+		int[] offset = new int[nodeCount];
+		int childCount = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			if (tree.isLeaf(node)) {
+				feature[node] = -1;
+				offset[node] = tree.getWeightOffset(node);
+			} else {
+				feature[node] = tree.getFeatureID(node);
+				offset[node] = childCount;
+				childCount += tree.getFeature(node).getValueCount();
+			}
+		}
+		int[] children = new int[childCount];
+		for (int node = 0; node < nodeCount; node++) {
+			if (!tree.isLeaf(node)) {
+				for (int v = 0; v < tree.getFeature(node).getValueCount(); v++) {
+					children[offset[node] + v] = tree.getChild(node, v);
+				}
+			}
+		}
+		double[] weights = tree.getWeights();
+		
+		// encode the dictionary up front to know the file size
+		List<byte[]> strings = new ArrayList<byte[]>();
+		int dictionary = 0;
+		for (Feature f : continuous) {
+			dictionary += 4 + string(f.getName(), strings);
+		}
+		for (Feature f : discrete) {
+			dictionary += 4 + string(f.getName(), strings) + 4;
+			for (String value : f.getValues()) {
+				dictionary += string(value, strings);
+			}
+		}
+		
+		int arrays = align(HEADER + 4 * (2 * nodeCount + childCount));
+		ByteBuffer buffer = ByteBuffer.allocate(arrays + 8 * weights.length + dictionary);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(discrete.size());
+		buffer.putInt(continuous.size());
+		buffer.putInt(nodeCount);
+		buffer.putInt(childCount);
+		buffer.putInt(weights.length);
+		buffer.asIntBuffer().put(feature).put(offset).put(children);
+		buffer.position(arrays);
+		buffer.asDoubleBuffer().put(weights);
+		buffer.position(arrays + 8 * weights.length);
+		int next = 0;
+		for (Feature f : continuous) {
+			buffer.putInt(f.getOldID());
+			putString(buffer, strings.get(next++));
+		}
+		for (Feature f : discrete) {
+			buffer.putInt(f.getOldID());
+			putString(buffer, strings.get(next++));
+			buffer.putInt(f.getValueCount());
+			for (int v = 0; v < f.getValueCount(); v++) {
+				putString(buffer, strings.get(next++));
+			}
+		}
+		buffer.flip();
+		
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/*
+	 * Loads a tree by mapping the file. The node table and weights are
+	 * copied out in bulk; only the feature dictionary is decoded. Counts,
+	 * offsets and child indices are checked against the file, so a
+	 * truncated or corrupt file fails here rather than in prediction.
+	 * @param file file to read
+	 * @return trained tree with its own feature lists
+	 */
+	public static FlatTree read(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			FileChannel channel = in.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			in.close();
+		}
+		
+		if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC) {
+			throw new IOException(file + " is not a model file");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException(file + " has model version " + version + ", expected " + VERSION);
+		}
+		int discreteCount = buffer.getInt();
+		int continuousCount = buffer.getInt();
+		int nodeCount = buffer.getInt();
+		int childCount = buffer.getInt();
+		int weightCount = buffer.getInt();
+		if (discreteCount < 0 || continuousCount < 0 || nodeCount < 1 || childCount < 0 || weightCount < 0) {
+			throw new IOException(file + " has negative counts or no nodes");
+		}
+		long end = (HEADER + 4L * (2L * nodeCount + childCount) + 7) / 8 * 8 + 8L * weightCount;
+		if (end > buffer.limit()) {
+			throw new IOException(file + " is truncated: its arrays need " + end + " bytes, the file has " + buffer.limit());
+		}
+		
+		int[] feature = new int[nodeCount];
+		int[] offset = new int[nodeCount];
+		int[] children = new int[childCount];
+		double[] weights = new double[weightCount];
+		int arrays = align(HEADER + 4 * (2 * nodeCount + childCount));
+		buffer.asIntBuffer().get(feature).get(offset).get(children);
+		buffer.position(arrays);
+		buffer.asDoubleBuffer().get(weights);
+		buffer.position(arrays + 8 * weightCount);
+		
+		List<Feature> continuous = new ArrayList<Feature>();
+		List<Feature> discrete = new ArrayList<Feature>();
+		try {
+			for (int i = 0; i < continuousCount; i++) {
+				int oldID = buffer.getInt();
+				continuous.add(new Feature(i, oldID, getString(buffer)));
+			}
+			for (int i = 0; i < discreteCount; i++) {
+				int oldID = buffer.getInt();
+				String name = getString(buffer);
+				int valueCount = buffer.getInt();
+				if (valueCount < 0 || valueCount > buffer.remaining() / 4) {
+					throw new BufferUnderflowException();
+				}
+				List<String> values = new ArrayList<String>(valueCount);
+				for (int v = 0; v < valueCount; v++) {
+					values.add(getString(buffer));
+				}
+				discrete.add(new Feature(i, oldID, name, values));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file + " is truncated in its feature dictionary");
+		}
+		
+		int stride = continuousCount + 1;
+		if (weightCount % stride != 0) {
+			throw new IOException(file + " has " + weightCount + " weights, not a multiple of " + stride);
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			if (feature[node] == -1) {
+				if (offset[node] < 0 || offset[node] % stride != 0 || offset[node] + stride > weightCount) {
+					throw new IOException(file + " has leaf " + node + " with weight offset " + offset[node] + " out of range");
+				}
+				continue;
+			}
+			if (feature[node] < 0 || feature[node] >= discreteCount) {
+				throw new IOException(file + " has node " + node + " splitting on unknown feature " + feature[node]);
+			}
+			int valueCount = discrete.get(feature[node]).getValueCount();
+			if (offset[node] < 0 || offset[node] > childCount - valueCount) {
+				throw new IOException(file + " has node " + node + " with child offset " + offset[node] + " out of range");
+			}
+			for (int v = 0; v < valueCount; v++) {
+				int child = children[offset[node] + v];
+				// every node comes after its parent, which also rules out cycles
+				if (child <= node || child >= nodeCount) {
+					throw new IOException(file + " has node " + node + " with child " + child + " out of range");
+				}
+			}
+		}
+		return new FlatTree(discrete, continuous, feature, offset, children, weights);
+	}
+	
+	/*
+	 * Encodes a string for the dictionary.
+	 * @param value string to encode
+	 * @param strings encoded strings, in the order they are written
+	 * @return bytes the string takes in the file
+	 */
+	private static int string(String value, List<byte[]> strings) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		strings.add(bytes);
+		return 4 + bytes.length;
+	}
+	
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+	
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static int align(int bytes) {
+		return (bytes + 7) / 8 * 8;
+	}
+}
@@ -0,0 +1,118 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/*
+ * Writes the hand-built tree, reads it back and compares predictions,
+ * then reads truncated and corrupted copies. Throws on the first check
+ * that fails.
+ */
+public class ModelFileTest {
+	/*
+	 * @param file model file, possibly damaged
+	 * @param what how the file was damaged
+	 */
+	private static void expectError(File file, String what) {
+		try {
+			ModelFile.read(file);
+		} catch (IOException e) {
+			return;
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("reading a file with " + what + " threw " + e);
+		}
+		throw new IllegalStateException("read a file with " + what);
+	}
+	
+	/*
+	 * @param file file to overwrite
+	 * @param bytes new contents
+	 */
+	private static void write(File file, byte[] bytes) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/*
+	 * @param bytes contents of a model file
+	 * @param position byte position of the int to replace
+	 * @param value new value
+	 * @return copy of the contents with the int replaced
+	 */
+	private static byte[] patch(byte[] bytes, int position, int value) {
+		byte[] copy = bytes.clone();
+		for (int i = 0; i < 4; i++) {
+			copy[position + i] = (byte) (value >>> (24 - 8 * i));
+		}
+		return copy;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("model", ".m5");
+		file.deleteOnExit();
+		ModelFile.write(TestSupport.MODEL, file);
+		FlatTree read = ModelFile.read(file);
+		
+		for (int i = 0; i < TestSupport.DISCRETE.size(); i++) {
+			Feature expected = TestSupport.DISCRETE.get(i);
+			Feature actual = read.getDiscreteFeatures().get(i);
+			TestSupport.check(actual.getOldID() == expected.getOldID() && actual.getName().equals(expected.getName()) && actual.getValues().equals(expected.getValues()), "reads discrete feature " + expected.getName());
+		}
+		Feature runtime = read.getContinuousFeatures().get(0);
+		TestSupport.check(runtime.getOldID() == 5 && runtime.getName().equals("runtime"), "reads continuous feature runtime");
+		
+		// every single value, several values and missing values
+		int[][][] rows = {{{0}, {0}}, {{0}, {1}}, {{1}, {0}}, {{2}, {1}}, {{0, 1}, {1}}, {{0}, {0, 1}}, {{}, {0}}, {{0}, {}}};
+		Dataset.Builder builder = new Dataset.Builder(TestSupport.DISCRETE, TestSupport.CONTINUOUS);
+		for (int row = 0; row < rows.length; row++) {
+			builder.add(row, "tt" + row, 0, rows[row], new double[] {80 + row});
+		}
+		Dataset data = builder.build();
+		double[] expected = new Predictor(TestSupport.MODEL, data).predict(data.rows());
+		double[] actual = new Predictor(read, data).predict(data.rows());
+		TestSupport.check(Arrays.equals(expected, actual), "predicts the same after reading: " + Arrays.toString(expected) + " vs " + Arrays.toString(actual));
+		
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		byte[] bytes = new byte[(int) in.length()];
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		File damaged = File.createTempFile("damaged", ".m5");
+		damaged.deleteOnExit();
+		for (int length = 0; length < bytes.length; length++) {
+			write(damaged, Arrays.copyOf(bytes, length));
+			expectError(damaged, "only " + length + " of " + bytes.length + " bytes");
+		}
+		
+		// header: magic, version, 2 feature counts, node, child and weight counts
+		int nodeCount = TestSupport.MODEL.getNodeCount();
+		int children = 7 * 4 + 2 * 4 * nodeCount;
+		write(damaged, patch(bytes, 0, 0));
+		expectError(damaged, "a bad magic number");
+		write(damaged, patch(bytes, 4, ModelFile.VERSION + 1));
+		expectError(damaged, "another version");
+		write(damaged, patch(bytes, 16, -1));
+		expectError(damaged, "a negative node count");
+		write(damaged, patch(bytes, 24, Integer.MAX_VALUE));
+		expectError(damaged, "too many weights");
+		write(damaged, patch(bytes, 7 * 4, 2));
+		expectError(damaged, "a split on an unknown feature");
+		write(damaged, patch(bytes, 7 * 4 + 4 * nodeCount + 4, 4));
+		expectError(damaged, "a child offset past the child table");
+		write(damaged, patch(bytes, 7 * 4 + 4 * nodeCount + 8, 1));
+		expectError(damaged, "a weight offset inside a leaf");
+		write(damaged, patch(bytes, children, 0));
+		expectError(damaged, "a child pointing back at the root");
+		write(damaged, patch(bytes, children, nodeCount));
+		expectError(damaged, "a child past the last node");
+		
+		System.out.println("ModelFileTest passed");
+	}
+}
@@ -1,22 +1,24 @@
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import weka.classifiers.functions.LinearRegression;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 public class ModelTree { 
 	private final List<Feature> features;
-	private final List<Data> trainingData;
-	//private final List<Data> testData;
-	private Node root;
-	private LinearRegression linearRegression;
-	private FastVector continuousAttributes;
+	private final List<Feature> continuousFeatures;
+	private Dataset data; // only held while training
+	private FlatTree model;
+	private volatile Predictor predictor; // predictor of the last dataset asked for
+	private PrunePath path; // null unless asked for
+	private final Parameters parameters;
+	private final boolean keepPath;
+	private final int parallelThreshold; // fork subtrees with at least this many examples; 0 builds sequentially
 	
 	private int trainingCorrect;
 	private double trainingAccuracy;
@@ -28,32 +30,108 @@ public class ModelTree {
 	private static final String HR = "---------------------------";
 	private List<Double> deviations;
 	
+	// per-value output statistics reused between split evaluations on the same thread
+	private final ThreadLocal<SplitStatistics> splitStatistics = new ThreadLocal<SplitStatistics>() {
+		protected SplitStatistics initialValue() {
+			return new SplitStatistics();
+		}
+	};
+	
 	/*
-	 * Creates a ModelTree object and calculates the accuracy on
-	 * the training and test data.
+	 * Creates a ModelTree object. Sibling subtrees are independent, so
+	 * children with at least the parallel threshold of examples are built
+	 * as fork/join tasks. The tree is the same as the sequential build.
 	 * @param features list of features
-	 * @param trainingData list of training data
-	 * @param testData list of test data
+	 * @param data dataset holding the training rows
+	 * @param trainingRows row indices of the training data
+	 * @param parameters stopping rule, ridge penalty and parallel threshold
 	 */
-	public ModelTree(List<Feature> features, List<Data> trainingData) throws Exception {
-		this.features = new ArrayList<Feature>(features); // we mess with the features array
-		this.trainingData = trainingData;
-		
-		// initialize our leaf-node linear classifier
-		// each leaf node is just re-trained on the same classifier
-		linearRegression = new LinearRegression();
-		// set up our continuous feature vector
-		continuousAttributes = new FastVector(2);
-		continuousAttributes.addElement(new Attribute("rating"));
-		for (int i = 1; i <= trainingData.get(0).getContinuousSize(); i++) {
-			continuousAttributes.addElement(new Attribute("attr" + i));
+	public ModelTree(List<Feature> features, Dataset data, int[] trainingRows, Parameters parameters) throws Exception {
+		this(features, data, trainingRows, parameters, false);
+	}
+	
+	/*
+	 * Creates a ModelTree object, optionally keeping what the stopping rule
+	 * saw at each internal node so trees for stricter settings can be
+	 * derived from this one.
+	 * @param features list of features
+	 * @param data dataset holding the training rows
+	 * @param trainingRows row indices of the training data
+	 * @param parameters stopping rule, ridge penalty and parallel threshold
+	 * @param keepPath whether to keep the prune path
+	 */
+	public ModelTree(List<Feature> features, Dataset data, int[] trainingRows, Parameters parameters, boolean keepPath) throws Exception {
+		this(features, data, parameters, keepPath, Arrays.copyOf(trainingRows, trainingRows.length));
+	}
+	
+	/*
+	 * Creates a ModelTree object from the training rows of one fold.
+	 * @param features list of features
+	 * @param data dataset holding the rows
+	 * @param split folds of the dataset
+	 * @param fold index of the fold left out for testing
+	 * @param parameters stopping rule, ridge penalty and parallel threshold
+	 */
+	public ModelTree(List<Feature> features, Dataset data, FoldSplit split, int fold, Parameters parameters) throws Exception {
+		this(features, data, parameters, false, split.getTrainingRows(fold));
+	}
+	
+	/*
+	 * Creates a ModelTree object from the training rows of one fold,
+	 * optionally keeping the prune path.
+	 * @param features list of features
+	 * @param data dataset holding the rows
+	 * @param split folds of the dataset
+	 * @param fold index of the fold left out for testing
+	 * @param parameters stopping rule, ridge penalty and parallel threshold
+	 * @param keepPath whether to keep the prune path
+	 */
+	public ModelTree(List<Feature> features, Dataset data, FoldSplit split, int fold, Parameters parameters, boolean keepPath) throws Exception {
+		this(features, data, parameters, keepPath, split.getTrainingRows(fold));
+	}
+	
+	/*
+	 * @param features list of features
+	 * @param data dataset holding the training rows
+	 * @param parameters stopping rule, ridge penalty and parallel threshold
+	 * @param keepPath whether to keep the prune path
+	 * @param rows row indices of the training data; every node works on a
+	 * range of this array and partitions it in place
+	 */
+	private ModelTree(List<Feature> features, Dataset data, Parameters parameters, boolean keepPath, int[] rows) throws Exception {
+		this.keepPath = keepPath;
+		this.features = new ArrayList<Feature>(features);
+		this.continuousFeatures = data.getContinuousFeatures();
+		this.data = data;
+		this.parameters = parameters;
+		this.parallelThreshold = parameters.getParallelThreshold();
+		if (features.size() > 64) {
+			throw new IllegalArgumentException("ModelTree supports at most 64 discrete features");
 		}
 		
+		long all = features.size() == 64 ? -1L : (1L << features.size()) - 1;
+		LeastSquares stats = statistics(rows, 0, rows.length);
+		
 		// initialize debugging stuff
-		deviations = new ArrayList<Double>();
+		deviations = Collections.synchronizedList(new ArrayList<Double>());
 		
 		// create our tree
-		root = M5(this.trainingData, this.features);
+		Node root;
+		if (parallelThreshold > 0) {
+			root = ForkJoinPool.commonPool().invoke(new SubtreeTask(rows, 0, rows.length, all, 0, stats, -1)).getNode();
+		} else {
+			root = M5(rows, 0, rows.length, all, 0, stats);
+		}
+		
+		// the trained tree keeps only its compact form, not the nodes or the training set
+		List<Node> order = new ArrayList<Node>();
+		Map<Node, Integer> index = new IdentityHashMap<Node, Integer>();
+		number(root, order, index, new IdentityHashMap<LinearEquation, Integer>());
+		this.model = flatten(order, index);
+		if (keepPath) {
+			this.path = prunePath(order);
+		}
+		this.data = null;
 		
 		// see how we did
 		
@@ -65,102 +143,239 @@ public class ModelTree {
 		*/
 	}
 	
-	public Node M5(List<Data> examples, List<Feature> features) throws Exception {
-		return M5(examples, features, 0);
-	}
-	
-	public Node M5(List<Data> examples, List<Feature> features, int depth) throws Exception {
+	/*
+	 * Builds the subtree for the examples in rows[from, to). The range is
+	 * reordered in place while partitioning the examples among the children.
+	 * @param rows row indices of data examples
+	 * @param from start of the examples in rows
+	 * @param to end of the examples in rows
+	 * @param remaining bit mask of the features left to split on
+	 * @param depth depth of recursion
+	 * @param stats least-squares statistics of the examples
+	 * @return root of the subtree
+	 */
+	private Node M5(int[] rows, int from, int to, long remaining, int depth, LeastSquares stats) throws Exception {
 		Node parent = new Node();
+		int featureCount = Long.bitCount(remaining);
 		
 		if (DEBUG) {
-			System.out.println(padLevel(depth) + "M5 with " + examples.size() + " examples and " + features.size() + " features");	
+			System.out.println(padLevel(depth) + "M5 with " + (to - from) + " examples and " + featureCount + " features");	
 		}
 		
-		Feature chosen = null;
-		double min = Double.POSITIVE_INFINITY;
-		List<List<Data>> subsets = null;
-		for (Feature feature : features) {
-			List<List<Data>> sub = classifyByFeatureValue(examples, feature);
-			
-			// find total count (including duplicates)
-			double count = 0;
-			for (List<Data> subset : sub) {
-				count += subset.size();
+		// score each candidate feature from per-value sufficient statistics and
+		// only partition the examples by the feature we end up choosing
+		double[] scores = new double[features.size()];
+		if (parallelThreshold > 0 && to - from >= parallelThreshold && featureCount > 1 && ForkJoinTask.inForkJoinPool()) {
+			// features are scored independently of each other
+			List<FeatureScoreTask> tasks = new ArrayList<FeatureScoreTask>(featureCount);
+			for (int i = 0; i < features.size(); i++) {
+				if ((remaining & (1L << i)) != 0) {
+					tasks.add(new FeatureScoreTask(rows, from, to, i, scores));
+				}
 			}
-			
-			// find standard deviation and adjust for size of subset
-			double temp = 0;
-			for (List<Data> subset : sub) {
-				// only compute standard deviation if subset has more than one example
-				if (subset.size() > 1) {
-					double stddev = standardDeviation(subset);
-					temp += stddev * Math.sqrt(1 - subset.size() / count); // punish small subsets
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			for (int i = 0; i < features.size(); i++) {
+				if ((remaining & (1L << i)) != 0) {
+					scores[i] = scoreFeature(rows, from, to, features.get(i));
 				}
 			}
+		}
+		
+		// ties go to the earliest feature so parallel scoring chooses the same feature
+		int chosen = -1;
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < features.size(); i++) {
+			double temp = scores[i];
 			
 			// if this feature is better than previous features, update accordingly
-			if (temp < min) {
+			if ((remaining & (1L << i)) != 0 && temp < min) {
 				min = temp;
-				chosen = feature;
-				subsets = sub;
+				chosen = i;
 			}
 		}
+		Feature feature = features.get(chosen);
+		Partition subsets = partition(rows, from, to, feature);
 		
-		parent.setFeature(chosen);
+		parent.setFeature(feature);
 		if (DEBUG) {
-			System.out.println(padLevel(depth) + "chose feature " + chosen.getName() + " with dev = " + min);
+			System.out.println(padLevel(depth) + "chose feature " + feature.getName() + " with dev = " + min);
 			deviations.add(min);
 		}
 		
 		// we now know chosen is the feature we are going to use
+		int valueCount = feature.getValueCount();
+		boolean[] recurse = new boolean[valueCount];
+		for (int i = 0; i < valueCount; i++) {
+			int size = subsets.size(i);
+			recurse[i] = !(size <= 2 || size < parameters.getMinSubsetSize() || min < parameters.getMinDeviation() || featureCount == 1);
+		}
+		LeastSquares[] childStats = childStatistics(subsets, to - from, recurse, stats);
+		
+		// only remove the feature for our recursion
+		long smaller = remaining & ~(1L << chosen);
+		
+		List<SubtreeTask> forked = new ArrayList<SubtreeTask>();
 		LinearEquation equation = null;
 		double average = Double.NaN;
-		for (int i = 0; i < subsets.size(); i++) {
-			//System.out.println(padLevel(depth + 1) + chosen.getValue(i) + " size is " + subsets.get(i).size());
-			int size = subsets.get(i).size();
-			if (size <= 2 || size < ModelTreeTest.MIN_SUBSET_SIZE || min < ModelTreeTest.MIN_DEVIATION || features.size() == 1) {
-				// run examples through perceptron and create leaf node
+		for (int i = 0; i < valueCount; i++) {
+			//System.out.println(padLevel(depth + 1) + feature.getValue(i) + " size is " + subsets.size(i));
+			int size = subsets.size(i);
+			if (!recurse[i]) {
+				// fit the examples' linear model and create leaf node
 				if (equation == null) {
-					Node child = new Node(examples, true);
-					parent.addChild(chosen.getValue(i), child);
+					Node child = new Node(stats);
+					parent.addChild(i, child);
 					equation = child.getEquation();
 					average = child.getOutputAvg();
+					if (DEBUG) {
+						double residual = stats.residualSquares(equation.getWeights());
+						System.out.println(padLevel(depth) + "leaf model rms = " + Math.sqrt(residual / stats.getCount()));
+					}
 				} else {
-					parent.addChild(chosen.getValue(i), new Node(examples, equation, average));
+					parent.addChild(i, new Node(equation, average));
 				}
 				
+			} else if (parallelThreshold > 0 && size >= parallelThreshold && ForkJoinTask.inForkJoinPool()) {
+				// build this subtree on another worker and join it below
+				SubtreeTask task = new SubtreeTask(subsets.rows, subsets.start(i), subsets.end(i), smaller, depth + 1, childStats[i], i);
+				task.fork();
+				forked.add(task);
 			} else {
-				// only remove the feature for our recursion
-				List<Feature> smaller = new ArrayList<Feature>(features);
-				smaller.remove(chosen);
-				parent.addChild( chosen.getValue(i), M5(subsets.get(i), smaller, depth + 1) );
+				parent.addChild( i, M5(subsets.rows, subsets.start(i), subsets.end(i), smaller, depth + 1, childStats[i]) );
 			}
 		}
 		
+		// join forked subtrees, most recently forked first
+		for (int i = forked.size() - 1; i >= 0; i--) {
+			SubtreeTask task = forked.get(i);
+			parent.addChild( task.getValue(), task.join().getNode() );
+		}
+		
+		if (keepPath) {
+			// children cut off by a stricter rule become leaves like their siblings
+			if (equation == null) {
+				equation = new LinearEquation(stats.solve(parameters.getRidge()));
+			}
+			parent.setStopping(to - from, min, equation);
+		}
 		return parent;
 	}
 	
 	/*
-	 * Compute sample standard deviation of set of example outputs.
-	 * Assume that examples contains at least two data elements.
-	 * @param examples set of data examples
+	 * @param rows row indices of data examples
+	 * @param from start of the examples in rows
+	 * @param to end of the examples in rows
+	 * @return least-squares statistics of the examples
+	 */
+	private LeastSquares statistics(int[] rows, int from, int to) {
+		LeastSquares stats = new LeastSquares(data.getContinuousSize());
+		stats.add(data, rows, from, to);
+		return stats;
+	}
+	
+	/*
+	 * Derives the least-squares statistics of the subsets that will be
+	 * split further from the parent's statistics. When the subsets partition
+	 * the examples, the largest of them is the parent minus all the others,
+	 * so its rows are never visited.
+	 * @param subsets examples partitioned by feature value
+	 * @param count number of examples
+	 * @param recurse whether each subset will be split further
+	 * @param parent least-squares statistics of the examples
+	 * @return statistics of each subset that will be split further; null otherwise
+	 */
+	private LeastSquares[] childStatistics(Partition subsets, int count, boolean[] recurse, LeastSquares parent) {
+		LeastSquares[] result = new LeastSquares[recurse.length];
+		int largest = -1;
+		for (int i = 0; i < recurse.length; i++) {
+			if (recurse[i] && (largest < 0 || subsets.size(i) > subsets.size(largest))) {
+				largest = i;
+			}
+		}
+		if (largest < 0) {
+			return result;
+		}
+		
+		if (subsets.isSingle()) {
+			// every example is in exactly one subset
+			LeastSquares others = new LeastSquares(data.getContinuousSize());
+			for (int i = 0; i < recurse.length; i++) {
+				if (i == largest) {
+					continue;
+				} else if (recurse[i]) {
+					result[i] = statistics(subsets.rows, subsets.start(i), subsets.end(i));
+					others.add(result[i]);
+				} else {
+					others.add(data, subsets.rows, subsets.start(i), subsets.end(i));
+				}
+			}
+			result[largest] = parent.copy();
+			result[largest].subtract(others);
+		} else {
+			// multiple feature values put some examples in several subsets
+			for (int i = 0; i < recurse.length; i++) {
+				if (recurse[i]) {
+					result[i] = statistics(subsets.rows, subsets.start(i), subsets.end(i));
+				}
+			}
+		}
+		return result;
+	}
+	
+	/*
+	 * Compute sample standard deviation from the count, sum and sum of
+	 * squares of a set of example outputs.
+	 * Assume that count is at least two.
+	 * @param count number of examples
+	 * @param sum sum of example outputs
+	 * @param squares sum of squared example outputs
 	 * @return sample standard deviation
 	 */
-	public double standardDeviation(List<Data> examples) {
-		// compute average
-		double average = 0;
-		for (int i = 0; i < examples.size(); i++) {
-			average += examples.get(i).getOutput();
+	public static double standardDeviation(int count, double sum, double squares) {
+		double result = (squares - sum * sum / count) / (count - 1);
+		// guard against rounding error when all outputs are (nearly) equal
+		return result > 0 ? Math.sqrt(result) : 0;
+	}
+	
+	/*
+	 * Scores a candidate split in one pass over the examples by collecting
+	 * the count, sum and sum of squares of the outputs for each feature value.
+	 * No subsets are built.
+	 * @param rows row indices of data examples
+	 * @param from start of the examples in rows
+	 * @param to end of the examples in rows
+	 * @param feature feature to score
+	 * @return sum of subset standard deviations adjusted for subset size
+	 */
+	private double scoreFeature(int[] rows, int from, int to, Feature feature) {
+		SplitStatistics stats = splitStatistics.get();
+		stats.reset(feature.getValueCount());
+		
+		int[] values = data.getValues(feature);
+		for (int i = from; i < to; i++) {
+			int example = rows[i];
+			float output = data.getOutput(example);
+			// iterate through multiple feature values
+			int end = data.getValueEnd(feature, example);
+			for (int j = data.getValueStart(feature, example); j < end; j++) {
+				stats.add(values[j], output);
+			}
 		}
-		average /= examples.size();
 		
-		double result = 0;
-		for (int i = 0; i < examples.size(); i++) {
-			double temp = examples.get(i).getOutput() - average;
-			result += temp * temp;
+		// find standard deviation and adjust for size of subset
+		double count = stats.total; // total count (including duplicates)
+		double temp = 0;
+		for (int i = 0; i < stats.touchedCount; i++) {
+			int index = stats.touched[i];
+			int size = stats.counts[index];
+			// only compute standard deviation if subset has more than one example
+			if (size > 1) {
+				double stddev = standardDeviation(size, stats.sums[index], stats.squares[index]);
+				temp += stddev * Math.sqrt(1 - size / count); // punish small subsets
+			}
 		}
-		result /= examples.size() - 1;
-		return Math.sqrt(result);
+		return temp;
 	}
 	
 	/*
@@ -172,96 +387,237 @@ public class ModelTree {
 	}
 	
 	/*
-	 * Classify set by the values of a specified feature
-	 * @param set set of data examples
+	 * Partitions the examples in rows[from, to) by the values of a feature,
+	 * like the partitioning step of a sort. If every example has exactly one
+	 * value, the range is reordered in place. Otherwise examples with several
+	 * values belong to several subsets, so the subsets are laid out in a
+	 * new spill array.
+	 * @param rows row indices of data examples
+	 * @param from start of the examples in rows
+	 * @param to end of the examples in rows
 	 * @param feature feature to classify examples by
-	 * @return list of subsets classified by feature value
+	 * @return subsets classified by feature value
 	 */
-	private List<List<Data>> classifyByFeatureValue(List<Data> set, Feature feature) {
-		// get the values for this feature
-		List<String> featureValues = feature.getValues();
-				
-		// initialize our subsets
-		List<List<Data>> subsets = new ArrayList<List<Data>>(featureValues.size());
-		for (int i = 0; i < featureValues.size(); i++) {
-			subsets.add( new ArrayList<Data>() );
+	private Partition partition(int[] rows, int from, int to, Feature feature) {
+		int[] values = data.getValues(feature);
+		int count = feature.getValueCount();
+		
+		// size our subsets
+		int[] bounds = new int[count + 1];
+		int total = 0;
+		boolean single = true; // every example has exactly one value
+		for (int i = from; i < to; i++) {
+			int start = data.getValueStart(feature, rows[i]);
+			int end = data.getValueEnd(feature, rows[i]);
+			single &= end - start == 1;
+			for (int j = start; j < end; j++) {
+				bounds[values[j] + 1]++;
+				total++;
+			}
 		}
-				
-		// classify the set according to chosen feature value
-		for (Data example : set) {
-			// iterate through multiple feature values
-			for (String value : example.getDiscrete(feature)) {
-				subsets.get(featureValues.indexOf(value)).add(example);
+		
+		if (single) {
+			// swap each example into its subset's range
+			bounds[0] = from;
+			for (int v = 0; v < count; v++) {
+				bounds[v + 1] += bounds[v];
 			}
+			int[] next = Arrays.copyOf(bounds, count);
+			for (int v = 0; v < count; v++) {
+				while (next[v] < bounds[v + 1]) {
+					int example = rows[next[v]];
+					int value = values[data.getValueStart(feature, example)];
+					if (value == v) {
+						next[v]++;
+					} else {
+						rows[next[v]] = rows[next[value]];
+						rows[next[value]++] = example;
+					}
+				}
+			}
+			return new Partition(rows, bounds, true);
+		} else {
+			// copy each example into the subset of each of its values
+			for (int v = 0; v < count; v++) {
+				bounds[v + 1] += bounds[v];
+			}
+			int[] spill = new int[total];
+			int[] next = Arrays.copyOf(bounds, count);
+			for (int i = from; i < to; i++) {
+				int end = data.getValueEnd(feature, rows[i]);
+				for (int j = data.getValueStart(feature, rows[i]); j < end; j++) {
+					spill[next[values[j]]++] = rows[i];
+				}
+			}
+			return new Partition(spill, bounds, false);
 		}
-		return subsets;
 	}
 	
 	/*
-	 * @param example example to test
+	 * Scores one row through the cached predictor of its dataset. Callers
+	 * scoring many rows should hold on to getPredictor(test) instead.
+	 * @param test dataset holding the example
+	 * @param example row index of example to test
 	 * @param outputPredictions whether or not to output predictions
 	 * @return true if tree predicted correctly; false otherwise
 	 */
-	public double testExample(Data example, boolean outputPredictions) {
-		return testExample(this.root, example, outputPredictions);
+	public double testExample(Dataset test, int example, boolean outputPredictions) {
+		return getPredictor(test).testExample(example, outputPredictions);
 	}
 	
 	/*
-	 * @param root root node of tree
-	 * @param example example to test
-	 * @return average squared difference
+	 * @param data dataset holding the examples
+	 * @param examples row indices of data examples
+	 * @return average example output
 	 */
-	private double testExample(Node root, Data example, boolean outputPredictions) {
-		if (!root.isLeaf()) {
-			List<String> values = example.getDiscrete(root.getFeature());
-			
-			// take the average prediction given multiple feature values
-			double average = 0;
-			for (String value : values) {
-				average += testExample(root.getChild(value), example, outputPredictions);
-			}
-			
-			return average / values.size();
-		} else {
-			//System.out.println(ModelTreeTest.formatArray(example.getContinuousArray()));
-			double prediction = root.solve(example.getContinuousArray());
-			//double prediction = root.getOutputAvg();
-			double result = example.getOutput() - prediction;
-			if (outputPredictions) {
-				System.out.println(example.getOutput() + "\t" + prediction + "\t" + result);
-			}
-			//double temp = example.getOutput() - root.getOutputAvg();
-			return result * result;
+	public static double computeAverage(Dataset data, int[] examples) {
+		double avg = 0;
+		for (int example : examples) {
+			avg += data.getOutput(example);
 		}
+		return avg / examples.length;
 	}
 	
-	public static double computeAverage(List<Data> examples) {
-		double avg = 0;
-		for (Data example : examples) {
-			avg += example.getOutput();
+	/*
+	 * @return compact form of the trained tree
+	 */
+	public FlatTree getModel() {
+		return model;
+	}
+	
+	/*
+	 * Binds the tree to a dataset. The predictor of the last dataset is
+	 * kept, so asking again for the same dataset costs nothing and its
+	 * per-thread scratch arrays are reused.
+	 * @param data dataset holding the rows to predict
+	 * @return predictor for the rows of the dataset
+	 */
+	public Predictor getPredictor(Dataset data) {
+		Predictor cached = predictor;
+		if (cached == null || cached.getDataset() != data) {
+			cached = new Predictor(model, data);
+			predictor = cached;
 		}
-		return avg / examples.size();
+		return cached;
 	}
 	
 	public void printTree() {
-		printSubtree(root, 0);
+		printSubtree(0, 0);
 	}
 	
 	/*
-	 * @param root root node of tree
+	 * @param node node of the flattened tree
 	 * @param level depth of recursion
 	 */
-	private void printSubtree(Node root, int level) {
-		Iterator<Entry<String, Node>> it = root.getChildren().entrySet().iterator();
-		while (it.hasNext()) {
+	private void printSubtree(int node, int level) {
+		Feature feature = model.getFeature(node);
+		for (int i = 0; i < feature.getValueCount(); i++) {
+			int leaf = model.getChild(node, i);
 			System.out.print(padLevel(level));
-			Entry<String, Node> leaf = it.next();
-			System.out.print(root.getFeatureName() + "=" + leaf.getKey());
-			if (leaf.getValue().isLeaf()) {
-				System.out.println(" " + leaf.getValue().getEquation().toString());
+			System.out.print(feature.getName() + "=" + feature.getValue(i));
+			if (model.isLeaf(leaf)) {
+				System.out.println(" " + model.getEquation(leaf).toString());
 			} else {
 				System.out.println();
-				printSubtree(leaf.getValue(), level + 1);
+				printSubtree(leaf, level + 1);
+			}
+		}
+	}
+	
+	/*
+	 * @return what the stopping rule saw at each node, or null if the tree
+	 * was built without keeping it
+	 */
+	public PrunePath getPrunePath() {
+		return path;
+	}
+	
+	/*
+	 * Lays the trained nodes out in arrays. Nodes are numbered in preorder
+	 * and sibling leaves that share one equation become a single leaf.
+	 * @param order nodes in numbering order
+	 * @param index number of each node
+	 * @return compact form of the tree
+	 */
+	private FlatTree flatten(List<Node> order, Map<Node, Integer> index) {
+		int[] feature = new int[order.size()];
+		int[] offset = new int[order.size()];
+		int childCount = 0;
+		int leafCount = 0;
+		for (Node node : order) {
+			if (node.isLeaf()) {
+				leafCount++;
+			} else {
+				childCount += node.getFeature().getValueCount();
+			}
+		}
+		int stride = continuousFeatures.size() + 1;
+		int[] children = new int[childCount];
+		double[] weights = new double[leafCount * stride];
+		
+		childCount = 0;
+		leafCount = 0;
+		for (int i = 0; i < order.size(); i++) {
+			Node node = order.get(i);
+			if (node.isLeaf()) {
+				feature[i] = -1;
+				offset[i] = leafCount * stride;
+				System.arraycopy(node.getEquation().getWeights(), 0, weights, offset[i], stride);
+				leafCount++;
+			} else {
+				feature[i] = node.getFeature().getID();
+				offset[i] = childCount;
+				Node[] nodes = node.getChildren();
+				for (int v = 0; v < nodes.length; v++) {
+					children[childCount + v] = index.get(nodes[v]);
+				}
+				childCount += nodes.length;
+			}
+		}
+		return new FlatTree(features, continuousFeatures, feature, offset, children, weights);
+	}
+	
+	/*
+	 * @param order nodes in numbering order
+	 * @return stopping statistics of the internal nodes, by node number
+	 */
+	private PrunePath prunePath(List<Node> order) {
+		int stride = continuousFeatures.size() + 1;
+		int[] size = new int[order.size()];
+		double[] deviation = new double[order.size()];
+		double[] equations = new double[order.size() * stride];
+		for (int i = 0; i < order.size(); i++) {
+			Node node = order.get(i);
+			if (!node.isLeaf()) {
+				size[i] = node.getSize();
+				deviation[i] = node.getDeviation();
+				System.arraycopy(node.getCollapse().getWeights(), 0, equations, i * stride, stride);
+			}
+		}
+		return new PrunePath(model, parameters, size, deviation, equations);
+	}
+	
+	/*
+	 * Numbers a subtree in preorder.
+	 * @param node root of the subtree
+	 * @param order nodes in numbering order
+	 * @param index number of each node
+	 * @param leaves number of each distinct leaf equation
+	 */
+	private void number(Node node, List<Node> order, Map<Node, Integer> index, Map<LinearEquation, Integer> leaves) {
+		if (node.isLeaf()) {
+			Integer leaf = leaves.get(node.getEquation());
+			if (leaf == null) {
+				leaf = order.size();
+				order.add(node);
+				leaves.put(node.getEquation(), leaf);
+			}
+			index.put(node, leaf);
+		} else {
+			index.put(node, order.size());
+			order.add(node);
+			for (Node child : node.getChildren()) {
+				number(child, order, index, leaves);
 			}
 		}
 	}
@@ -285,40 +641,37 @@ public class ModelTree {
 	/*
 	 * ModelTree node represents a feature or a classification value.
 	 * If the node represents a feature, it has n children represented as
-	 * a Map<String, Node> where the n key values represent the possible
-	 * values for that feature.
+	 * a Node[] indexed by the n possible values for that feature.
 	 */
 	protected class Node {
 		private Feature feature;
-		private Map<String, Node> children;
-		private List<Data> examples;
+		private Node[] children;
 		private LinearEquation output;
 		private double outputAvg;
+		private int size; // examples that reached an internal node
+		private double deviation; // score of an internal node's split
+		private LinearEquation collapse; // equation of the node's leaf children
 		
 		public Node() {
 			feature = null;
 			children = null;
-			examples = null;
 			output = null;
 			outputAvg = Double.NaN;
 		}
 		
-		public Node(List<Data> examples) throws Exception {
-			this(examples, false);
-		}
-		
-		public Node(List<Data> examples, boolean leaf) throws Exception {
+		/*
+		 * Creates a leaf node whose linear model is fit from the
+		 * examples' least-squares statistics.
+		 * @param stats least-squares statistics of the examples
+		 */
+		public Node(LeastSquares stats) {
 			this();
-			this.examples = examples;
-			if (leaf) {
-				output = new LinearEquation(perceptron(examples));
-				outputAvg = computeAverage(examples);
-			}
+			output = new LinearEquation(stats.solve(parameters.getRidge()));
+			outputAvg = stats.getMean();
 		}
 		
-		public Node(List<Data> examples, LinearEquation eq, double avg) {
+		public Node(LinearEquation eq, double avg) {
 			this();
-			this.examples = examples;
 			output = eq;
 			outputAvg = avg;
 		}
@@ -331,18 +684,22 @@ public class ModelTree {
 			return feature.getName();
 		}
 		
-		public Map<String, Node> getChildren() {
+		public Node[] getChildren() {
 			return children;
 		}
 		
-		public Node getChild(String key) {
-			return children.get(key);
+		public Node getChild(int value) {
+			return children[value];
 		}
 				
 		public double solve(double[] x) {
 			return output.solve(x);
 		}
 		
+		public double solve(Dataset test, int example) {
+			return output.solve(test, example);
+		}
+		
 		public double getOutputAvg() {
 			return outputAvg;
 		}
@@ -351,27 +708,52 @@ public class ModelTree {
 			return output;
 		}
 		
-		public List<Data> getExamples() {
-			return examples;
-		}
-		
 		public void setFeature(Feature feature) {
 			this.feature = feature;
 		}
 		
-		public void addChild(String key, Node node) {
+		/*
+		 * Records what the stopping rule saw at an internal node.
+		 * @param size number of examples that reached the node
+		 * @param deviation score of the chosen split
+		 * @param collapse equation fit to the node's examples
+		 */
+		public void setStopping(int size, double deviation, LinearEquation collapse) {
+			this.size = size;
+			this.deviation = deviation;
+			this.collapse = collapse;
+		}
+		
+		public int getSize() {
+			return size;
+		}
+		
+		public double getDeviation() {
+			return deviation;
+		}
+		
+		public LinearEquation getCollapse() {
+			return collapse;
+		}
+		
+		public void addChild(int value, Node node) {
 			if (children == null) {
-				children = new HashMap<String, Node>();
+				children = new Node[feature.getValueCount()];
 			}
-			children.put(key, node);
+			children[value] = node;
 		}
 		
 		public int countChildren() {
 			if (children == null) {
 				return 0;
-			} else {
-				return children.size();
 			}
+			int count = 0;
+			for (Node child : children) {
+				if (child != null) {
+					count++;
+				}
+			}
+			return count;
 		}
 		
 		public boolean isLeaf() {
@@ -381,44 +763,184 @@ public class ModelTree {
 				return true;
 			}
 		}
+	}
+	
+	/*
+	 * Count, sum and sum of squares of the example outputs for each value
+	 * of a feature. Only the values that were seen are cleared on reset, so
+	 * features with thousands of values stay cheap at small nodes.
+	 */
+	private static class SplitStatistics {
+		private int[] counts = new int[0];
+		private double[] sums = new double[0];
+		private double[] squares = new double[0];
+		private int[] touched = new int[0];
+		private int touchedCount;
+		private int total;
 		
-		private double[] perceptron(List<Data> examples) throws Exception {
-			Instances dataSet = new Instances("data-set", continuousAttributes, ModelTreeTest.MIN_SUBSET_SIZE);
-			dataSet.setClassIndex(0);
-			
-			for (Data example : examples) {
-				double[] attrs = new double[example.getContinuousSize() + 1];
-				attrs[0] = example.getOutput();
-				System.arraycopy(example.getContinuousArray(), 0, attrs, 1, attrs.length - 1);
-				//System.out.println(attrs[0] + "," + attrs[1] + "," + attrs[2] + "," + attrs[3] + "," + attrs[4]);
-				dataSet.add(new Instance(1, attrs));
-				
-				/*
-				int count = 0;
-				System.out.print(example.getOutput() + ",");
-				for (double temp : example.getContinuousArray()) {
-					System.out.print(temp);
-					count++;
-					if (count < example.getContinuousSize()) {
-						System.out.print(",");
-					} else {
-						System.out.println();
-					}
+		public void reset(int valueCount) {
+			if (counts.length < valueCount) {
+				counts = new int[valueCount];
+				sums = new double[valueCount];
+				squares = new double[valueCount];
+				touched = new int[valueCount];
+			} else {
+				for (int i = 0; i < touchedCount; i++) {
+					int index = touched[i];
+					counts[index] = 0;
+					sums[index] = 0;
+					squares[index] = 0;
 				}
-				*/
 			}
+			touchedCount = 0;
+			total = 0;
+		}
+		
+		public void add(int index, double output) {
+			if (counts[index] == 0) {
+				touched[touchedCount++] = index;
+			}
+			counts[index]++;
+			sums[index] += output;
+			squares[index] += output * output;
+			total++;
+		}
+	}
+	
+	/*
+	 * Examples partitioned by feature value. The subset for value i is
+	 * rows[bounds[i], bounds[i + 1]).
+	 */
+	private static class Partition {
+		private final int[] rows;
+		private final int[] bounds;
+		private final boolean single; // every example is in exactly one subset
+		
+		/*
+		 * @param rows row indices, subset after subset
+		 * @param bounds start of each subset in rows, then its end
+		 * @param single whether every example is in exactly one subset
+		 */
+		public Partition(int[] rows, int[] bounds, boolean single) {
+			this.rows = rows;
+			this.bounds = bounds;
+			this.single = single;
+		}
+		
+		public int start(int value) {
+			return bounds[value];
+		}
+		
+		public int end(int value) {
+			return bounds[value + 1];
+		}
+		
+		public int size(int value) {
+			return bounds[value + 1] - bounds[value];
+		}
+		
+		/*
+		 * @return whether every example is in exactly one subset, so the
+		 * subsets are disjoint and cover the parent's examples
+		 */
+		public boolean isSingle() {
+			return single;
+		}
+	}
+	
+	/*
+	 * Scores one candidate feature as a fork/join task.
+	 */
+	private class FeatureScoreTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] rows;
+		private final int from;
+		private final int to;
+		private final int index;
+		private final double[] scores;
+		
+		/*
+		 * @param rows row indices of data examples
+		 * @param from start of the examples in rows
+		 * @param to end of the examples in rows
+		 * @param index index of the feature to score
+		 * @param scores shared score array, indexed like the features
+		 */
+		public FeatureScoreTask(int[] rows, int from, int to, int index, double[] scores) {
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.index = index;
+			this.scores = scores;
+		}
+		
+		protected void compute() {
+			scores[index] = scoreFeature(rows, from, to, features.get(index));
+		}
+	}
+	
+	/*
+	 * Builds one subtree with M5 as a fork/join task. Training errors are
+	 * carried back to the joining thread in the result.
+	 */
+	private class SubtreeTask extends RecursiveTask<SubtreeTask.Result> {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] rows;
+		private final int from;
+		private final int to;
+		private final long remaining;
+		private final int depth;
+		private final LeastSquares stats;
+		private final int value;
+		
+		/*
+		 * @param rows row indices of data examples
+		 * @param from start of the examples in rows
+		 * @param to end of the examples in rows
+		 * @param remaining bit mask of the features left to split on
+		 * @param depth depth of recursion
+		 * @param stats least-squares statistics of the examples
+		 * @param value index of the parent's feature value this subtree belongs to
+		 */
+		public SubtreeTask(int[] rows, int from, int to, long remaining, int depth, LeastSquares stats, int value) {
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.remaining = remaining;
+			this.depth = depth;
+			this.stats = stats;
+			this.value = value;
+		}
+		
+		public int getValue() {
+			return value;
+		}
+		
+		protected Result compute() {
+			try {
+				return new Result(M5(rows, from, to, remaining, depth, stats), null);
+			} catch (Exception e) {
+				return new Result(null, e);
+			}
+		}
+		
+		private class Result {
+			private final Node node;
+			private final Exception error;
 			
-			double weights[] = new double[examples.get(0).getContinuousSize() + 1];
-			linearRegression.buildClassifier(dataSet);
-			double coef[] = linearRegression.coefficients();
-			
-			// first coefficient is always 0 -- scrap it
-			weights[0] = coef[coef.length - 1];
-			for (int i = 1; i < coef.length - 1; i++) {
-				weights[i] = coef[i]; 
+			public Result(Node node, Exception error) {
+				this.node = node;
+				this.error = error;
 			}
 			
-			return weights;
+			public Node getNode() throws Exception {
+				if (error != null) {
+					throw error;
+				}
+				return node;
+			}
 		}
 	}
 }
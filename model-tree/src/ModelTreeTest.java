@@ -1,5 +1,11 @@
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ModelTreeTest {
 	static final boolean DEBUG = false;
@@ -8,8 +14,8 @@ public class ModelTreeTest {
 	private final static int KFOLDS = 10;
 	private final static int FOLD = -1; // run through kfolds manually
 	
-	static int MIN_SUBSET_SIZE; // stop if subset size is less than this
-	static double MIN_DEVIATION; // stop if deviation is less than this
+	// folds trained at once; debug and prediction output is only readable sequentially
+	private static final int FOLD_THREADS = DEBUG || PREDICTIONS ? 1 : Runtime.getRuntime().availableProcessors();
 	
 	private static final int[] SUBSET_SIZES = {40};
 	private static final double[] DEVIATION_SIZES = {1};
@@ -17,41 +23,21 @@ public class ModelTreeTest {
 	private static final boolean NOISY = false;
 	private static final boolean FOLDS = true;
 	private static final boolean SCORED = false;
+	private static final String MODEL_DIR = null; // write each fold's model to this directory (null = don't)
 	
 	/*
-	 * Shuffles the elements in a list.
-	 * @param list list to shuffle
+	 * Shuffles the elements in an array of row indices.
+	 * @param rows rows to shuffle
 	 */
-	public static void randomize(List<Data> list) {
-		for (int i = list.size() - 1; i > 0; i--) {
+	public static void randomize(int[] rows) {
+		for (int i = rows.length - 1; i > 0; i--) {
 			int rand = (int)( Math.random() * i );
-			Data temp = list.get(i);
-			list.set(i, list.get(rand));
-			list.set(rand, temp);
+			int temp = rows[i];
+			rows[i] = rows[rand];
+			rows[rand] = temp;
 		}
 	}
 	
-	/*
-	 * Splits a list into k distinct subsets in preparation for
-	 * k-fold validation.
-	 * @param list list to split
-	 * @param k number of distinct subsets
-	 * @return k distinct subsets
-	 */
-	public static List<List<Data>> splitList(List<Data> list, int k) {
-		List<List<Data>> subsets = new ArrayList<List<Data>>();
-		int size = list.size() / k; //5
-		for (int i = 0; i < k; i++) {
-			int max = (i + 1) * size - 1;
-			if (i == k - 1) {
-				// our last subset is probably going to bigger
-				max = list.size() - 1;
-			}
-			subsets.add( list.subList(i * size, max) );
-		}
-		return subsets;
-	}
-	
 	/*
 	 * @param array double array to average
 	 * @return average of double array
@@ -98,10 +84,26 @@ public class ModelTreeTest {
 		return result;
 	}
 	
+	/*
+	 * Waits for a fold and rethrows whatever stopped it.
+	 * @param fold submitted fold
+	 * @return the trained and evaluated fold
+	 */
+	private static Fold await(Future<Fold> fold) throws Exception {
+		try {
+			return fold.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+	
 	public static void main(String[] args) throws Exception {
-		Configuration config;
-		List<Data> examples;
-		List<List<Data>> subsets;
+		Configuration config = null;
+		Dataset examples = null;
+		FoldSplit split = null;
 		
 		if (FOLDS) {
 			System.out.println("Running regular 10-fold experiment");
@@ -109,81 +111,133 @@ public class ModelTreeTest {
 			examples = Parse.parseDataFile("../data-collection/datasets/usa/usa_data_5000.txt", 1, 2, config.getDiscrete(), config.getContinuous());
 			
 			// assume file is already shuffled
-			//randomize(examples);
+			//randomize(rows);
 			
-			subsets = splitList(examples, KFOLDS);
+			split = new FoldSplit(examples.rows(), KFOLDS);
 		}
 		
-		for (int s = 0; s < SUBSET_SIZES.length; s++) {
-			for (int d = 0; d < DEVIATION_SIZES.length; d++) {
-				MIN_SUBSET_SIZE = SUBSET_SIZES[s];
-				MIN_DEVIATION = DEVIATION_SIZES[d];
-				
-				double[] error = new double[KFOLDS];
-				double[] normError = new double[KFOLDS];
-				
-				if (SCORED) {
-					System.out.println("Running special 10-fold experiment over 20 files");
-					// use for pre-generated training/test sets
-					for (int fold = 0; fold < 10; fold++) {
-						String path = "../data-collection/datasets/clean/";
-						String subset = "clean_data_5000";
-						config = Parse.parseConfigFile("config/score_config.txt", "../data-collection/datasets/clean/clean_config_5000.txt");
-						List<Data> trainSet = Parse.parseDataFile(path + subset + "-score-subsets/" + subset + "-" + fold + "-train.txt", 1, 2, config.getDiscrete(), config.getContinuous());
-						List<Data> testSet = Parse.parseDataFile(path + subset + "-score-subsets/" + subset + "-" + fold + "-test.txt", 1, 2, config.getDiscrete(), config.getContinuous());
-						
-						ModelTree tree = new ModelTree(config.getDiscrete(), trainSet);
-						Evaluate eval = new Evaluate(tree, testSet);
-						System.out.println("(" + fold + ")\t" + eval.getRMS());
-						error[fold] = eval.getRMS();
-						normError[fold] = eval.getNormRMS();
-					}
+		FoldLoader scored = null;
+		Configuration scoreConfig = null;
+		if (SCORED) {
+			// one master file with the fold of each row and its scores in every fold
+			scoreConfig = Parse.parseConfigFile("config/score_config.txt", "../data-collection/datasets/clean/clean_config_5000.txt");
+			scored = new FoldLoader(new File("../data-collection/datasets/clean/clean_data_5000-folds.txt"), 2, scoreConfig.getDiscrete(), scoreConfig.getContinuous());
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(FOLD_THREADS);
+		try {
+			for (int s = 0; s < SUBSET_SIZES.length; s++) {
+				for (int d = 0; d < DEVIATION_SIZES.length; d++) {
+					final Parameters parameters = new Parameters(SUBSET_SIZES[s], DEVIATION_SIZES[d]);
+					
+					double[] error = new double[KFOLDS];
+					double[] normError = new double[KFOLDS];
 					
-					//System.out.println(average(error) + "\t" + average(normError));
-				} else if (FOLDS) {
-					// regular 10-fold experiment
-					for (int test = 0; test < subsets.size(); test++) {
-						if (FOLD >= 0) {
-							// if we are doing this manually
-							test = FOLD;
+					// folds are submitted in order and reported in order as they finish
+					List<Future<Fold>> folds = new ArrayList<Future<Fold>>();
+					if (SCORED) {
+						System.out.println("Running special 10-fold experiment over scored folds");
+						for (int fold = 0; fold < scored.getFoldCount(); fold++) {
+							final int index = fold;
+							final FoldLoader loader = scored;
+							final List<Feature> discrete = scoreConfig.getDiscrete();
+							folds.add(executor.submit(new Callable<Fold>() {
+								public Fold call() throws Exception {
+									Dataset data = loader.getDataset(index);
+									ModelTree tree = new ModelTree(discrete, data, loader.getSplit(), index, parameters);
+									return new Fold(index, tree, new Evaluate(tree.getPredictor(data), loader.getSplit(), index));
+								}
+							}));
 						}
-						// create our training set
-						List<Data> train = new ArrayList<Data>();
-						for (int i = 0; i < subsets.size(); i++) {
-							if (i != test) {
-								train.addAll(subsets.get(i));
+					} else if (FOLDS) {
+						// regular 10-fold experiment
+						for (int test = 0; test < split.getFoldCount(); test++) {
+							if (FOLD >= 0) {
+								// if we are doing this manually
+								test = FOLD;
+							}
+							final int index = test;
+							final FoldSplit foldSplit = split;
+							final List<Feature> discrete = config.getDiscrete();
+							final Dataset data = examples;
+							folds.add(executor.submit(new Callable<Fold>() {
+								public Fold call() throws Exception {
+									ModelTree tree = new ModelTree(discrete, data, foldSplit, index, parameters);
+									return new Fold(index, tree, new Evaluate(tree.getPredictor(data), foldSplit, index));
+								}
+							}));
+							
+							if (FOLD >= 0) {
+								break;
 							}
 						}
+					} else if (NOISY) {
+						config = Parse.parseConfigFile("config/config.txt", "../data-collection/datasets/noisy/noisy_config_5000.txt");
+						Dataset trainSet = Parse.parseDataFile("../data-collection/datasets/noisy/noisy_data_5000-train.txt", 1, 2, config.getDiscrete(), config.getContinuous());
+						Dataset testSet = Parse.parseDataFile("../data-collection/datasets/noisy/noisy_data_5000-test.txt", 1, 2, config.getDiscrete(), config.getContinuous());
 						
-						ModelTree tree = new ModelTree(config.getDiscrete(), train);
-						Evaluate eval = new Evaluate(tree, subsets.get(test));
+						ModelTree tree = new ModelTree(config.getDiscrete(), trainSet, trainSet.rows(), parameters);
+						Evaluate eval = new Evaluate(tree, testSet, testSet.rows());
+						System.out.println(parameters + "\t" + eval.getRMS() + "\t" + eval.getNormRMS());
+						//error[0] = eval.getRMS();
+						//normError[0] = eval.getNormRMS();
+					}
+					
+					for (Future<Fold> future : folds) {
+						Fold fold = await(future);
+						int test = fold.getIndex();
+						if (FOLDS && !SCORED) {
+							if (DEBUG) {
+								System.out.println("model: " + fold.getTree().getModel());
+							}
+							if (MODEL_DIR != null) {
+								ModelFile.write(fold.getTree().getModel(), new File(MODEL_DIR, "fold-" + test + ".m5"));
+							}
+						}
+						Evaluate eval = fold.getEvaluation();
 						System.out.println("(" + test + ")\t" + eval.getRMS());
+						if (DEBUG && !SCORED) {
+							System.out.println("scored " + (long) eval.getRowsPerSecond() + " rows/s");
+						}
 						error[test] = eval.getRMS();
 						normError[test] = eval.getNormRMS();
-						
-						if (FOLD >= 0) {
-							break;
-						}
 					}
-				} else if (NOISY) {
-					config = Parse.parseConfigFile("config/config.txt", "../data-collection/datasets/noisy/noisy_config_5000.txt");
-					List<Data> trainSet = Parse.parseDataFile("../data-collection/datasets/noisy/noisy_data_5000-train.txt", 1, 2, config.getDiscrete(), config.getContinuous());
-					List<Data> testSet = Parse.parseDataFile("../data-collection/datasets/noisy/noisy_data_5000-test.txt", 1, 2, config.getDiscrete(), config.getContinuous());
 					
-					ModelTree tree = new ModelTree(config.getDiscrete(), trainSet);
-					Evaluate eval = new Evaluate(tree, testSet);
-					System.out.println(MIN_SUBSET_SIZE + "\t" + MIN_DEVIATION + "\t" + eval.getRMS() + "\t" + eval.getNormRMS());
-					//error[0] = eval.getRMS();
-					//normError[0] = eval.getNormRMS();
-				}
-				
-				// print results
-				if (!NOISY) {
-					System.out.println(MIN_SUBSET_SIZE + "\t" + MIN_DEVIATION + "\t" + average(error) + "\t" + average(normError));
+					// print results
+					if (!NOISY) {
+						System.out.println(parameters + "\t" + average(error) + "\t" + average(normError));
+					}
 				}
 			}
+		} finally {
+			executor.shutdown();
 		}
+	}
+	
+	/*
+	 * Trained tree of one fold with its evaluation on the held-out rows.
+	 */
+	private static class Fold {
+		private final int index;
+		private final ModelTree tree;
+		private final Evaluate evaluation;
 		
+		public Fold(int index, ModelTree tree, Evaluate evaluation) {
+			this.index = index;
+			this.tree = tree;
+			this.evaluation = evaluation;
+		}
 		
+		public int getIndex() {
+			return index;
+		}
+		
+		public ModelTree getTree() {
+			return tree;
+		}
+		
+		public Evaluate getEvaluation() {
+			return evaluation;
+		}
 	}
 }
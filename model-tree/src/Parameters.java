@@ -0,0 +1,56 @@
+
+/*
+ * Settings for building a ModelTree. Instances are immutable, so a tree
+ * being trained never sees another experiment's settings and several
+ * trees can be trained at once with different ones.
+ */
+public class Parameters {
+	public static final double DEFAULT_RIDGE = 1e-8;
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 500;
+	
+	private final int minSubsetSize; // stop if subset size is less than this
+	private final double minDeviation; // stop if deviation is less than this
+	private final double ridge; // ridge penalty for the leaf-node linear models
+	private final int parallelThreshold; // build subtrees with at least this many examples in parallel (0 = sequential)
+	
+	/*
+	 * @param minSubsetSize stop if subset size is less than this
+	 * @param minDeviation stop if deviation is less than this
+	 */
+	public Parameters(int minSubsetSize, double minDeviation) {
+		this(minSubsetSize, minDeviation, DEFAULT_RIDGE, DEFAULT_PARALLEL_THRESHOLD);
+	}
+	
+	/*
+	 * @param minSubsetSize stop if subset size is less than this
+	 * @param minDeviation stop if deviation is less than this
+	 * @param ridge ridge penalty for the leaf-node linear models
+	 * @param parallelThreshold minimum subset size to build in parallel; 0 builds sequentially
+	 */
+	public Parameters(int minSubsetSize, double minDeviation, double ridge, int parallelThreshold) {
+		this.minSubsetSize = minSubsetSize;
+		this.minDeviation = minDeviation;
+		this.ridge = ridge;
+		this.parallelThreshold = parallelThreshold;
+	}
+	
+	public int getMinSubsetSize() {
+		return minSubsetSize;
+	}
+	
+	public double getMinDeviation() {
+		return minDeviation;
+	}
+	
+	public double getRidge() {
+		return ridge;
+	}
+	
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	public String toString() {
+		return minSubsetSize + "\t" + minDeviation;
+	}
+}
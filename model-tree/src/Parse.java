@@ -36,41 +36,108 @@ public class Parse {
 	 * @return formatted Data object
 	 */
 	private static Data createData(String raw, int id, int idIndex, int outputIndex, List<Feature> discreteFeatures, List<Feature> continuousFeatures) throws ParseException {
-		String[] example = raw.split("\t");
-		
-		// find our discrete feature values
-		List<List<String>> discreteValues = new ArrayList<List<String>>();
+		return createData(raw.split("\t"), id, idIndex, outputIndex, discreteFeatures, continuousFeatures);
+	}
+	
+	/*
+	 * Creates a formatted Data object from the columns of a line in a data file.
+	 * @param example columns of the line
+	 * @param id unique identifier
+	 * @param idIndex index of unique identifier
+	 * @param outputIndex index of actual output
+	 * @param discreteFeatures list of discrete features
+	 * @param continuousFeatures list of continuous features
+	 * @return formatted Data object
+	 */
+	public static Data createData(String[] example, int id, int idIndex, int outputIndex, List<Feature> discreteFeatures, List<Feature> continuousFeatures) throws ParseException {
+		// find our discrete feature values and store them as value indices
+		int[][] discreteValues = new int[discreteFeatures.size()][];
 		for (Feature feature : discreteFeatures) {
-			discreteValues.add( feature.getID(), Arrays.asList(example[feature.getOldID()].split(",")) );
+			String[] values = example[feature.getOldID()].split(",");
+			int[] indices = new int[values.length];
+			for (int i = 0; i < values.length; i++) {
+				indices[i] = feature.getValueIndex(values[i]);
+				if (indices[i] < 0) {
+					throw new ParseException("Unknown value " + values[i] + " for feature " + feature.getName(), id);
+				}
+			}
+			discreteValues[feature.getID()] = indices;
 		}
 		
 		// find our continuous feature values
-		List<Number> continuousValues = new ArrayList<Number>();
+		double[] continuousValues = new double[continuousFeatures.size()];
 		for (Feature feature : continuousFeatures) {
-			continuousValues.add( feature.getID(), NumberFormat.getInstance().parse(example[feature.getOldID()]) );
+			continuousValues[feature.getID()] = NumberFormat.getInstance().parse(example[feature.getOldID()]).doubleValue();
 		}
 		
 		return new Data(id, example[idIndex], Float.parseFloat(example[outputIndex]), discreteValues, continuousValues);
 	}
 	
 	/*
-	 * Parses a file and creates a list of Data objects from each line.
+	 * Creates a Data object from the columns of a row to be scored. Unlike
+	 * createData, discrete values the features don't know (an actor who was
+	 * not in the training data) are dropped rather than rejected, and a
+	 * missing or empty output column reads as NaN.
+	 * @param example columns of the row, laid out as in a data file
+	 * @param id unique identifier
+	 * @param idIndex index of unique identifier
+	 * @param outputIndex index of actual output
+	 * @param discreteFeatures list of discrete features
+	 * @param continuousFeatures list of continuous features
+	 * @return formatted Data object
+	 */
+	public static Data createRow(String[] example, int id, int idIndex, int outputIndex, List<Feature> discreteFeatures, List<Feature> continuousFeatures) throws ParseException {
+		int[][] discreteValues = new int[discreteFeatures.size()][];
+		for (Feature feature : discreteFeatures) {
+			String[] values = column(example, feature.getOldID(), id).split(",");
+			int[] indices = new int[values.length];
+			int count = 0;
+			for (String value : values) {
+				int index = feature.getValueIndex(value);
+				if (index >= 0) {
+					indices[count++] = index;
+				}
+			}
+			discreteValues[feature.getID()] = Arrays.copyOf(indices, count);
+		}
+		
+		double[] continuousValues = new double[continuousFeatures.size()];
+		for (Feature feature : continuousFeatures) {
+			continuousValues[feature.getID()] = NumberFormat.getInstance().parse(column(example, feature.getOldID(), id)).doubleValue();
+		}
+		
+		float output = Float.NaN;
+		if (outputIndex < example.length && example[outputIndex].length() > 0) {
+			output = Float.parseFloat(example[outputIndex]);
+		}
+		return new Data(id, column(example, idIndex, id), output, discreteValues, continuousValues);
+	}
+	
+	private static String column(String[] example, int index, int id) throws ParseException {
+		if (index >= example.length) {
+			throw new ParseException("Row has " + example.length + " columns, expected at least " + (index + 1), id);
+		}
+		return example[index];
+	}
+	
+	/*
+	 * Parses a file and lays out each line as a row of a Dataset.
 	 * @param file filename of file
 	 * @param idIndex index of unique identifier
 	 * @param outputIndex index of actual output
 	 * @param discreteFeatures list of discrete features
 	 * @param continuousFeatures list of continuous features
-	 * @return formatted list of Data objects
+	 * @return columnar dataset with one row per line
 	 */
-	public static List<Data> parseDataFile(String file, int idIndex, int outputIndex, List<Feature> discreteFeatures, List<Feature> continuousFeatures) throws ParseException {
+	public static Dataset parseDataFile(String file, int idIndex, int outputIndex, List<Feature> discreteFeatures, List<Feature> continuousFeatures) throws ParseException {
 		Scanner scanner = openFile(file);
-		List<Data> examples = new ArrayList<Data>();
+		Dataset.Builder examples = new Dataset.Builder(discreteFeatures, continuousFeatures);
 		int count = 0;
 		while (scanner.hasNextLine()) {
 			examples.add( createData(scanner.nextLine(), count, idIndex, outputIndex, discreteFeatures, continuousFeatures) );
 			count++;
 		}
-		return examples;
+		return examples.build();
 	}
 	
 	public static Configuration parseConfigFile(String config, Map<String, List<String>> nominalValues) {
@@ -0,0 +1,186 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounded cache of predictions keyed by movie identifier and model
+ * version. Entries are spread over segments by identifier, each with its
+ * own lock and least recently used order, so request threads only wait
+ * for others hitting the same segment; eviction is least recently used
+ * within a segment. Entries older than the time to live are treated as
+ * missing. Only predictions of the current model version are stored.
+ * It assumes a movie's row does not change while the model is unchanged.
+ */
+public class PredictionCache {
+	private static final int SEGMENTS = 16;
+	
+	private final int capacity;
+	private final long ttlNanos;
+	private final Segment[] segments;
+	private volatile long version; // version of the model being served
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/*
+	 * @param capacity largest number of predictions to keep
+	 * @param ttlMillis how long a prediction stays valid (0 = forever)
+	 */
+	public PredictionCache(int capacity, long ttlMillis) {
+		this.capacity = capacity;
+		this.ttlNanos = ttlMillis * 1000000;
+		segments = new Segment[Math.max(1, Math.min(SEGMENTS, capacity))];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment(capacity / segments.length + (i < capacity % segments.length ? 1 : 0));
+		}
+	}
+	
+	private Segment segment(String identifier) {
+		int hash = identifier.hashCode();
+		return segments[((hash ^ (hash >>> 16)) & 0x7fffffff) % segments.length];
+	}
+	
+	/*
+	 * @param identifier movie identifier; an empty one is never cached
+	 * @param version version of the model that made the prediction
+	 * @return cached prediction, or null if there is none
+	 */
+	public Double get(String identifier, long version) {
+		if (identifier == null || identifier.length() == 0) {
+			return null;
+		}
+		Key key = new Key(identifier, version);
+		Segment segment = segment(identifier);
+		Entry entry;
+		synchronized (segment) {
+			entry = segment.get(key);
+			if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.time > ttlNanos) {
+				segment.remove(key);
+				evictions.incrementAndGet();
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.prediction;
+	}
+	
+	/*
+	 * Stores a prediction unless the identifier is empty or the model
+	 * version is no longer the current one; a request still running when
+	 * the model was swapped would otherwise evict current entries with
+	 * ones that can never be hit.
+	 * @param identifier movie identifier
+	 * @param version version of the model that made the prediction
+	 * @param prediction predicted output
+	 */
+	public void put(String identifier, long version, double prediction) {
+		if (identifier == null || identifier.length() == 0) {
+			return;
+		}
+		Segment segment = segment(identifier);
+		synchronized (segment) {
+			// checked under the lock, so invalidate() either sees the entry or stops it
+			if (version == this.version) {
+				segment.put(new Key(identifier, version), new Entry(prediction, System.nanoTime()));
+			}
+		}
+	}
+	
+	/*
+	 * Drops every prediction when a new model is loaded.
+	 * @param version version of the new model; only its predictions are stored from now on
+	 */
+	public void invalidate(long version) {
+		this.version = version;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				evictions.addAndGet(segment.size());
+				segment.clear();
+			}
+		}
+	}
+	
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	public String toString() {
+		return "size=" + size() + "/" + capacity + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+	}
+	
+	/*
+	 * Predictions of one range of identifier hashes, least recently used
+	 * first. Guarded by its own monitor.
+	 */
+	private class Segment extends LinkedHashMap<Key, Entry> {
+		private static final long serialVersionUID = 1L;
+		private final int capacity;
+		
+		public Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+			if (size() > capacity) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	private static class Key {
+		private final String identifier;
+		private final long version;
+		
+		public Key(String identifier, long version) {
+			this.identifier = identifier;
+			this.version = version;
+		}
+		
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return version == key.version && identifier.equals(key.identifier);
+		}
+		
+		public int hashCode() {
+			return identifier.hashCode() * 31 + (int) (version ^ (version >>> 32));
+		}
+	}
+	
+	private static class Entry {
+		private final double prediction;
+		private final long time; // System.nanoTime() when stored
+		
+		public Entry(double prediction, long time) {
+			this.prediction = prediction;
+			this.time = time;
+		}
+	}
+}
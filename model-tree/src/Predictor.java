@@ -0,0 +1,398 @@
+import java.util.Arrays;
+import java.util.List;
+
+public class Predictor {
+	private final FlatTree tree;
+	private final Dataset data;
+	private final Feature[] features; // discrete features by id
+	private final int[][] values; // value column of each discrete feature
+	private final ThreadLocal<Leaves> leaves = new ThreadLocal<Leaves>() {
+		protected Leaves initialValue() {
+			return new Leaves(tree.getNodeCount());
+		}
+	};
+	private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>() {
+		protected Batch initialValue() {
+			return new Batch();
+		}
+	};
+	
+	/*
+	 * Binds a trained tree to a dataset. The dataset layout is checked
+	 * once here so that predict() needs no checks of its own.
+	 * @param tree trained tree
+	 * @param data dataset holding the rows to predict
+	 */
+	public Predictor(FlatTree tree, Dataset data) {
+		List<Feature> discrete = tree.getDiscreteFeatures();
+		if (data.getDiscreteSize() != discrete.size() || data.getContinuousSize() != tree.getContinuousFeatures().size()) {
+			throw new IllegalArgumentException("Dataset has " + data.getDiscreteSize() + " discrete and " + data.getContinuousSize() + " continuous features, model expects " + discrete.size() + " and " + tree.getContinuousFeatures().size());
+		}
+		for (int i = 0; i < discrete.size(); i++) {
+			Feature expected = discrete.get(i);
+			Feature actual = data.getDiscreteFeatures().get(i);
+			if (actual != expected && (!actual.getName().equals(expected.getName()) || actual.getValueCount() != expected.getValueCount())) {
+				throw new IllegalArgumentException("Dataset feature " + actual.getName() + " does not match model feature " + expected.getName());
+			}
+		}
+		
+		this.tree = tree;
+		this.data = data;
+		features = new Feature[discrete.size()];
+		values = new int[discrete.size()][];
+		for (int i = 0; i < features.length; i++) {
+			features[i] = data.getDiscreteFeatures().get(i);
+			values[i] = data.getValues(features[i]);
+		}
+	}
+	
+	public FlatTree getTree() {
+		return tree;
+	}
+	
+	public Dataset getDataset() {
+		return data;
+	}
+	
+	/*
+	 * Predicts the output of one row. Splits on features the row has one
+	 * value for are followed in a loop. Once a row has several values for
+	 * a split, the distinct leaves below it are collected with their share
+	 * of the average and each leaf equation is evaluated once. Nothing is
+	 * allocated.
+	 * @param row row index
+	 * @return predicted output, or NaN if the row has no value for a split
+	 */
+	public double predict(int row) {
+		int node = descend(row);
+		if (node >= 0) {
+			return tree.solve(node, data, row);
+		}
+		Leaves leaves = collect(-node - 1, row);
+		if (leaves == null) {
+			return Double.NaN;
+		}
+		double result = 0;
+		for (int i = 0; i < leaves.count; i++) {
+			int leaf = leaves.nodes[i];
+			result += leaves.weights[leaf] * tree.solve(leaf, data, row);
+		}
+		return result;
+	}
+	
+	/*
+	 * Predicts the output of many rows at once.
+	 * @param rows row indices
+	 * @return predicted output of each row, NaN where a row has no value
+	 * for a split
+	 */
+	public double[] predict(int[] rows) {
+		return evaluate(rows, 0, rows.length, false);
+	}
+	
+	/*
+	 * Predicts the output of a range of rows at once.
+	 * @param rows row indices
+	 * @param from start of the rows to predict
+	 * @param to end of the rows to predict
+	 * @return predicted output of each row in the range
+	 */
+	public double[] predict(int[] rows, int from, int to) {
+		return evaluate(rows, from, to, false);
+	}
+	
+	/*
+	 * Squared errors of many rows at once, as testExample() would return
+	 * them.
+	 * @param rows row indices
+	 * @return average squared difference of each row
+	 */
+	public double[] squaredErrors(int[] rows) {
+		return evaluate(rows, 0, rows.length, true);
+	}
+	
+	/*
+	 * Squared errors of a range of rows at once.
+	 * @param rows row indices
+	 * @param from start of the rows to score
+	 * @param to end of the rows to score
+	 * @return average squared difference of each row in the range
+	 */
+	public double[] squaredErrors(int[] rows, int from, int to) {
+		return evaluate(rows, from, to, true);
+	}
+	
+	/*
+	 * Routes every row to its leaves, groups the rows by leaf and then
+	 * evaluates each leaf over its group one continuous column at a time.
+	 * @param rows row indices
+	 * @param begin start of the rows to evaluate
+	 * @param end end of the rows to evaluate
+	 * @param squaredError whether to return squared errors instead of predictions
+	 * @return prediction or squared error of each row in the range
+	 */
+	private double[] evaluate(int[] rows, int begin, int end, boolean squaredError) {
+		double[] result = new double[end - begin];
+		Batch batch = this.batch.get();
+		batch.reset(end - begin, tree.getNodeCount());
+		
+		// route every row; most rows reach a single leaf
+		for (int i = 0; i < end - begin; i++) {
+			int node = descend(rows[begin + i]);
+			if (node >= 0) {
+				batch.add(node, i, 1);
+				continue;
+			}
+			Leaves leaves = collect(-node - 1, rows[begin + i]);
+			if (leaves == null) {
+				result[i] = Double.NaN;
+				continue;
+			}
+			for (int j = 0; j < leaves.count; j++) {
+				batch.add(leaves.nodes[j], i, leaves.weights[leaves.nodes[j]]);
+			}
+		}
+		
+		// group by leaf with a counting sort
+		int count = batch.count;
+		int[] start = batch.start;
+		for (int i = 0; i < count; i++) {
+			start[batch.leafOf[i] + 1]++;
+		}
+		for (int i = 0; i < tree.getNodeCount(); i++) {
+			start[i + 1] += start[i];
+		}
+		int[] next = batch.next;
+		System.arraycopy(start, 0, next, 0, tree.getNodeCount());
+		int[] groupRow = batch.groupRow;
+		int[] groupPosition = batch.groupPosition;
+		double[] groupWeight = batch.groupWeight;
+		for (int i = 0; i < count; i++) {
+			int slot = next[batch.leafOf[i]]++;
+			groupRow[slot] = rows[begin + batch.positionOf[i]];
+			groupPosition[slot] = batch.positionOf[i];
+			groupWeight[slot] = batch.weightOf[i];
+		}
+		
+		// evaluate each leaf over its group, summing in the same order as solve()
+		double[] weights = tree.getWeights();
+		double[] value = batch.value;
+		int continuousSize = data.getContinuousSize();
+		for (int leaf = 0; leaf < tree.getNodeCount(); leaf++) {
+			int from = start[leaf];
+			int to = start[leaf + 1];
+			if (from == to) {
+				continue;
+			}
+			int offset = tree.getWeightOffset(leaf);
+			for (int f = 0; f < continuousSize; f++) {
+				double w = weights[offset + f + 1];
+				double[] column = data.getContinuousColumn(f);
+				for (int e = from; e < to; e++) {
+					value[e] += w * column[groupRow[e]];
+				}
+			}
+			double intercept = weights[offset];
+			for (int e = from; e < to; e++) {
+				double prediction = value[e] + intercept;
+				if (squaredError) {
+					double difference = data.getOutput(groupRow[e]) - prediction;
+					result[groupPosition[e]] += groupWeight[e] * difference * difference;
+				} else {
+					result[groupPosition[e]] += groupWeight[e] * prediction;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/*
+	 * Follows the splits a row has exactly one value for.
+	 * @param row row index
+	 * @return leaf reached, or -(node + 1) for the first node where the
+	 * row does not have exactly one value
+	 */
+	private int descend(int row) {
+		int node = 0;
+		while (!tree.isLeaf(node)) {
+			int f = tree.getFeatureID(node);
+			int start = data.getValueStart(features[f], row);
+			if (data.getValueEnd(features[f], row) - start != 1) {
+				return -node - 1;
+			}
+			node = tree.getChild(node, values[f][start]);
+		}
+		return node;
+	}
+	
+	/*
+	 * Finds the distinct leaves a row reaches and each leaf's share of the
+	 * prediction, which is the sum of share times leaf equation.
+	 * @param row row index
+	 * @param leaves filled with the leaves reached; needs room for every node
+	 * @param shares filled with each leaf's share
+	 * @return number of leaves, or -1 if the row has no value for a split
+	 */
+	public int leaves(int row, int[] leaves, double[] shares) {
+		int node = descend(row);
+		if (node >= 0) {
+			leaves[0] = node;
+			shares[0] = 1;
+			return 1;
+		}
+		Leaves reached = collect(-node - 1, row);
+		if (reached == null) {
+			return -1;
+		}
+		for (int i = 0; i < reached.count; i++) {
+			leaves[i] = reached.nodes[i];
+			shares[i] = reached.weights[reached.nodes[i]];
+		}
+		return reached.count;
+	}
+	
+	/*
+	 * Squared error of one row, averaged over the leaves the row reaches
+	 * in the same way as predict() averages the predictions.
+	 * @param row row index
+	 * @param outputPredictions whether to print each leaf's prediction
+	 * @return average squared difference
+	 */
+	public double testExample(int row, boolean outputPredictions) {
+		Leaves leaves = collect(0, row);
+		if (leaves == null) {
+			return Double.NaN;
+		}
+		double error = 0;
+		for (int i = 0; i < leaves.count; i++) {
+			int leaf = leaves.nodes[i];
+			double prediction = tree.solve(leaf, data, row);
+			double result = data.getOutput(row) - prediction;
+			if (outputPredictions) {
+				System.out.println(data.getOutput(row) + "\t" + prediction + "\t" + result);
+			}
+			error += leaves.weights[leaf] * result * result;
+		}
+		return error;
+	}
+	
+	/*
+	 * Finds the distinct leaves a row reaches from a node. Each node is
+	 * expanded once with the summed weight of every path into it, so the
+	 * work is bounded by the nodes reached rather than the number of
+	 * root-to-leaf paths.
+	 * @param from node to start from
+	 * @param row row index
+	 * @return this thread's leaves, valid until the next call, or null if
+	 * the row has no value for a split it reaches
+	 */
+	private Leaves collect(int from, int row) {
+		Leaves leaves = this.leaves.get();
+		leaves.reset();
+		double[] weights = leaves.weights;
+		int[] stack = leaves.stack;
+		int top = 0;
+		stack[top++] = from;
+		weights[from] = 1;
+		while (top > 0) {
+			int node = stack[--top];
+			double weight = weights[node];
+			if (tree.isLeaf(node)) {
+				leaves.nodes[leaves.count++] = node;
+				continue;
+			}
+			weights[node] = 0;
+			int f = tree.getFeatureID(node);
+			int start = data.getValueStart(features[f], row);
+			int end = data.getValueEnd(features[f], row);
+			if (start == end) {
+				// averaging over no values
+				while (top > 0) {
+					weights[stack[--top]] = 0;
+				}
+				leaves.reset();
+				return null;
+			}
+			double share = weight / (end - start);
+			for (int j = start; j < end; j++) {
+				int child = tree.getChild(node, values[f][j]);
+				if (weights[child] == 0) {
+					stack[top++] = child;
+				}
+				weights[child] += share;
+			}
+		}
+		return leaves;
+	}
+	
+	/*
+	 * Scratch for evaluate(): the leaves each row reaches, then the same
+	 * entries grouped by leaf.
+	 */
+	private static class Batch {
+		private int[] leafOf = new int[0];
+		private int[] positionOf = new int[0];
+		private double[] weightOf = new double[0];
+		private int[] groupRow = new int[0];
+		private int[] groupPosition = new int[0];
+		private double[] groupWeight = new double[0];
+		private double[] value = new double[0];
+		private int[] start = new int[0]; // first entry of each leaf
+		private int[] next = new int[0];
+		private int count;
+		
+		public void reset(int rows, int nodeCount) {
+			if (start.length < nodeCount + 1) {
+				start = new int[nodeCount + 1];
+				next = new int[nodeCount];
+			} else {
+				Arrays.fill(start, 0, nodeCount + 1, 0);
+			}
+			Arrays.fill(value, 0, Math.min(count, value.length), 0);
+			count = 0;
+			ensure(rows);
+		}
+		
+		public void add(int leaf, int position, double weight) {
+			if (count == leafOf.length) {
+				ensure(count * 2);
+			}
+			leafOf[count] = leaf;
+			positionOf[count] = position;
+			weightOf[count] = weight;
+			count++;
+		}
+		
+		private void ensure(int capacity) {
+			if (leafOf.length < capacity) {
+				leafOf = Arrays.copyOf(leafOf, capacity);
+				positionOf = Arrays.copyOf(positionOf, capacity);
+				weightOf = Arrays.copyOf(weightOf, capacity);
+				groupRow = new int[capacity];
+				groupPosition = new int[capacity];
+				groupWeight = new double[capacity];
+				value = Arrays.copyOf(value, capacity);
+			}
+		}
+	}
+	
+	private static class Leaves {
+		private final double[] weights; // share of the prediction, by node
+		private final int[] stack; // nodes still to expand
+		private final int[] nodes; // distinct leaves reached
+		private int count;
+		
+		public Leaves(int nodeCount) {
+			weights = new double[nodeCount];
+			stack = new int[nodeCount];
+			nodes = new int[nodeCount];
+		}
+		
+		public void reset() {
+			for (int i = 0; i < count; i++) {
+				weights[nodes[i]] = 0;
+			}
+			count = 0;
+		}
+	}
+}
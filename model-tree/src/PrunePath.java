@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/*
+ * A tree trained with loose stopping thresholds, together with what the
+ * stopping rule saw at each internal node. A larger minimum subset size
+ * or minimum deviation only makes M5 stop sooner, so the tree for any
+ * stricter setting is this tree with some internal nodes collapsed into
+ * leaves. A collapsed child gets the equation its leaf siblings use,
+ * which is fit to the parent's examples.
+ */
+public class PrunePath {
+	private final FlatTree tree;
+	private final Parameters parameters;
+	private final int[] size; // per node; examples that reached an internal node
+	private final double[] deviation; // per node; score of an internal node's split
+	private final double[] equations; // per node; weights of an internal node's leaf children
+	
+	/*
+	 * @param tree tree trained with the loose settings
+	 * @param parameters settings the tree was trained with
+	 * @param size number of examples that reached each internal node
+	 * @param deviation score of each internal node's split
+	 * @param equations weights of each internal node's leaf children, in the layout of FlatTree's weights
+	 */
+	public PrunePath(FlatTree tree, Parameters parameters, int[] size, double[] deviation, double[] equations) {
+		this.tree = tree;
+		this.parameters = parameters;
+		this.size = size;
+		this.deviation = deviation;
+		this.equations = equations;
+	}
+	
+	public FlatTree getTree() {
+		return tree;
+	}
+	
+	public Parameters getParameters() {
+		return parameters;
+	}
+	
+	/*
+	 * @param stricter settings to derive a tree for
+	 * @return whether the tree for the settings can be derived from this one
+	 */
+	public boolean covers(Parameters stricter) {
+		return stricter.getMinSubsetSize() >= parameters.getMinSubsetSize()
+			&& stricter.getMinDeviation() >= parameters.getMinDeviation()
+			&& stricter.getRidge() == parameters.getRidge();
+	}
+	
+	/*
+	 * Collapses the nodes the stricter rule would not have split. The
+	 * result has the shape of a tree trained with the stricter settings;
+	 * leaf weights can differ from it by rounding, as the training
+	 * statistics are summed in another order.
+	 * @param stricter settings with thresholds at least as large
+	 * @return tree for the stricter settings
+	 */
+	public FlatTree derive(Parameters stricter) {
+		if (!covers(stricter)) {
+			throw new IllegalArgumentException("Cannot derive a tree for " + stricter + " from one trained with " + parameters);
+		}
+		Derivation derivation = new Derivation(stricter);
+		derivation.add(0);
+		return derivation.build();
+	}
+	
+	/*
+	 * Lays out the derived tree in preorder, numbering nodes the way
+	 * ModelTree does.
+	 */
+	private class Derivation {
+		private final int minSubsetSize;
+		private final double minDeviation;
+		private final int stride = tree.getContinuousFeatures().size() + 1;
+		private final int[] feature = new int[tree.getNodeCount()];
+		private final int[] offset = new int[tree.getNodeCount()];
+		private int[] children = new int[0];
+		private final double[] weights = new double[tree.getNodeCount() * stride];
+		private final int[] leafOf = new int[tree.getNodeCount()]; // derived leaf of each internal node's leaf children
+		private int nodeCount;
+		private int childCount;
+		private int leafCount;
+		
+		public Derivation(Parameters stricter) {
+			this.minSubsetSize = stricter.getMinSubsetSize();
+			this.minDeviation = stricter.getMinDeviation();
+			Arrays.fill(leafOf, -1);
+		}
+		
+		/*
+		 * @param node internal node of the loose tree that is kept
+		 * @return number of the node in the derived tree
+		 */
+		public int add(int node) {
+			int index = nodeCount++;
+			int valueCount = tree.getFeature(node).getValueCount();
+			feature[index] = tree.getFeatureID(node);
+			offset[index] = childCount;
+			int start = childCount;
+			childCount += valueCount;
+			if (children.length < childCount) {
+				children = Arrays.copyOf(children, Math.max(childCount, children.length * 2));
+			}
+			
+			boolean stop = deviation[node] < minDeviation;
+			for (int value = 0; value < valueCount; value++) {
+				int child = tree.getChild(node, value);
+				// add() can grow children, so store into the array after it returns
+				int derived = stop || tree.isLeaf(child) || size[child] < minSubsetSize ? leaf(node) : add(child);
+				children[start + value] = derived;
+			}
+			return index;
+		}
+		
+		/*
+		 * @param parent internal node of the loose tree
+		 * @return number of the derived leaf shared by the node's leaf children
+		 */
+		private int leaf(int parent) {
+			if (leafOf[parent] < 0) {
+				leafOf[parent] = nodeCount++;
+				feature[leafOf[parent]] = -1;
+				offset[leafOf[parent]] = leafCount * stride;
+				System.arraycopy(equations, parent * stride, weights, leafCount * stride, stride);
+				leafCount++;
+			}
+			return leafOf[parent];
+		}
+		
+		public FlatTree build() {
+			return new FlatTree(tree.getDiscreteFeatures(), tree.getContinuousFeatures(), Arrays.copyOf(feature, nodeCount),
+				Arrays.copyOf(offset, nodeCount), Arrays.copyOf(children, childCount), Arrays.copyOf(weights, leafCount * stride));
+		}
+	}
+}
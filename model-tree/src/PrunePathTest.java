@@ -0,0 +1,45 @@
+import java.util.Arrays;
+
+/*
+ * Trains one loose tree on the 5000 movie data set, derives the trees of
+ * stricter stopping rules from it and compares each with a tree trained
+ * from scratch with the stricter rule. Throws on the first check that
+ * fails.
+ */
+public class PrunePathTest {
+	private static final double TOLERANCE = 1e-6; // leaf fits sum their statistics in another order
+	
+	public static void main(String[] args) throws Exception {
+		Configuration config = Parse.parseConfigFile("config/config.txt", "../data-collection/datasets/usa/USA_config_5000.txt");
+		Dataset data = Parse.parseDataFile("../data-collection/datasets/usa/usa_data_5000.txt", 1, 2, config.getDiscrete(), config.getContinuous());
+		int[] rows = data.rows();
+		int[] training = Arrays.copyOf(rows, rows.length * 9 / 10); // predict held-out rows too
+		
+		// the root's split scores 0, so any positive minimum deviation stops there;
+		// the subset sizes are what cut the tree at inner nodes
+		Parameters loose = new Parameters(4, 0);
+		PrunePath path = new ModelTree(config.getDiscrete(), data, training, loose, true).getPrunePath();
+		Parameters[] stricter = {loose, new Parameters(10, 0), new Parameters(40, 0), new Parameters(100, 0), new Parameters(400, 0), new Parameters(10, 0.5), new Parameters(40, 2)};
+		for (Parameters parameters : stricter) {
+			FlatTree derived = path.derive(parameters);
+			FlatTree trained = new ModelTree(config.getDiscrete(), data, training, parameters).getModel();
+			TestSupport.check(derived.getNodeCount() == trained.getNodeCount() && derived.getLeafCount() == trained.getLeafCount(),
+				parameters + ": derived " + derived + ", trained " + trained);
+			
+			double[] expected = new Predictor(trained, data).predict(rows);
+			double[] actual = new Predictor(derived, data).predict(rows);
+			double largest = 0;
+			for (int i = 0; i < rows.length; i++) {
+				if (Double.isNaN(expected[i]) || Double.isNaN(actual[i])) {
+					TestSupport.check(Double.isNaN(expected[i]) && Double.isNaN(actual[i]), parameters + ": row " + rows[i] + " predicts " + actual[i] + ", expected " + expected[i]);
+					continue;
+				}
+				largest = Math.max(largest, Math.abs(expected[i] - actual[i]));
+			}
+			TestSupport.check(largest <= TOLERANCE, parameters + ": predictions differ by up to " + largest);
+			System.out.println(parameters + "\t" + derived + "\tlargest difference " + largest);
+		}
+		
+		System.out.println("PrunePathTest passed");
+	}
+}
@@ -0,0 +1,505 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Embedded HTTP server that scores movie rows with a trained tree.
+ *
+ *   POST /predict        one row, returns one prediction
+ *   POST /predict/batch  many rows, returns one prediction per row
+ *   GET  /stats          request latency histograms
+ *   POST /model          body is the path of a model file to swap in
+ *
+ * Rows use the column layout of the data files: tab separated lines, or
+ * with a JSON content type an array of column values (an array of such
+ * arrays for a batch). Responses are JSON for JSON requests and one
+ * prediction per line otherwise. Values the model has never seen are
+ * ignored; a row that is left with no value for a split it reaches
+ * predicts NaN (null in JSON).
+ *
+ * The server listens on the loopback interface unless given another
+ * address, as /model loads any file the process can read.
+ *
+ * With a PredictionCache, rows whose imdb id was scored before by the
+ * same model are answered from the cache; rows without an imdb id are
+ * always scored. Swapping in a new model bumps the version and empties
+ * the cache, which then refuses predictions of older versions.
+ */
+public class ScoringServer {
+	private static final int ID_INDEX = 1;
+	private static final int OUTPUT_INDEX = 2;
+	private static final long CACHE_TTL = 10 * 60 * 1000; // milliseconds a cached prediction stays valid
+	
+	private final AtomicReference<Served> model;
+	private final PredictionCache cache; // null if not caching
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Histogram predictLatency = new Histogram();
+	private final Histogram batchLatency = new Histogram();
+	
+	/*
+	 * @param model trained tree to serve
+	 * @param port port to listen on, on the loopback interface
+	 */
+	public ScoringServer(FlatTree model, int port) throws IOException {
+		this(model, port, null);
+	}
+	
+	/*
+	 * @param model trained tree to serve
+	 * @param port port to listen on, on the loopback interface
+	 * @param cache cache of predictions by imdb id, or null
+	 */
+	public ScoringServer(FlatTree model, int port, PredictionCache cache) throws IOException {
+		this(model, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), cache);
+	}
+	
+	/*
+	 * @param model trained tree to serve
+	 * @param address address to listen on; anyone who can reach it can
+	 * make the server read files through /model
+	 * @param cache cache of predictions by imdb id, or null
+	 */
+	public ScoringServer(FlatTree model, InetSocketAddress address, PredictionCache cache) throws IOException {
+		this.model = new AtomicReference<Served>(new Served(model, 0));
+		this.cache = cache;
+		executor = newExecutor();
+		server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/predict", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				score(exchange, false);
+			}
+		});
+		server.createContext("/predict/batch", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				score(exchange, true);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String stats = "predict\t" + predictLatency + "\nbatch\t" + batchLatency + "\nmodel\t" + getModel() + "\ncache\t" + cache + "\n";
+				respond(exchange, 200, "text/plain", stats);
+			}
+		});
+		server.createContext("/model", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (!exchange.getRequestMethod().equals("POST")) {
+					respond(exchange, 405, "text/plain", "POST the path of a model file\n");
+					return;
+				}
+				String path = read(exchange).trim();
+				try {
+					FlatTree next = ModelFile.read(new File(path));
+					swap(next);
+					respond(exchange, 200, "text/plain", "loaded " + next + "\n");
+				} catch (IOException e) {
+					respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+				} catch (RuntimeException e) {
+					// anything else that goes wrong while loading still gets an answer
+					respond(exchange, 400, "text/plain", "cannot load " + path + ": " + e + "\n");
+				}
+			}
+		});
+	}
+	
+	/*
+	 * Uses a virtual thread per request when the JDK has them, and a
+	 * cached thread pool otherwise.
+	 * @return executor for request handling
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	public void stop() {
+		server.stop(0);
+		executor.shutdown();
+	}
+	
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	public FlatTree getModel() {
+		return model.get().tree;
+	}
+	
+	/*
+	 * Replaces the served model. Requests already running finish with the
+	 * model they started with.
+	 * @param next newly trained tree
+	 * @return tree that was being served
+	 */
+	public FlatTree swap(FlatTree next) {
+		Served previous;
+		synchronized (model) {
+			previous = model.get();
+			model.set(new Served(next, previous.version + 1));
+			if (cache != null) {
+				cache.invalidate(previous.version + 1);
+			}
+		}
+		return previous.tree;
+	}
+	
+	/*
+	 * @param exchange request holding the rows
+	 * @param batch whether the request may hold several rows
+	 */
+	private void score(HttpExchange exchange, boolean batch) throws IOException {
+		long start = System.nanoTime();
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "text/plain", "POST rows to score\n");
+			return;
+		}
+		String type = exchange.getRequestHeaders().getFirst("Content-Type");
+		boolean json = type != null && type.contains("json");
+		Served served = model.get();
+		FlatTree tree = served.tree;
+		try {
+			List<String[]> rows = json ? Json.parseRows(read(exchange), batch) : parseTsv(read(exchange));
+			if (!batch && rows.size() != 1) {
+				throw new ParseException("Expected one row, got " + rows.size(), 0);
+			}
+			double[] predictions = new double[rows.size()];
+			int[] missed = new int[rows.size()]; // rows not in the cache
+			int missedCount = 0;
+			Dataset.Builder builder = new Dataset.Builder(tree.getDiscreteFeatures(), tree.getContinuousFeatures());
+			for (int i = 0; i < rows.size(); i++) {
+				Data row = Parse.createRow(rows.get(i), i, ID_INDEX, OUTPUT_INDEX, tree.getDiscreteFeatures(), tree.getContinuousFeatures());
+				// rows without an imdb id would all share one entry
+				boolean cacheable = cache != null && row.getIdentifier().length() > 0;
+				Double cached = cacheable ? cache.get(row.getIdentifier(), served.version) : null;
+				if (cached != null) {
+					predictions[i] = cached;
+				} else {
+					builder.add(row);
+					missed[missedCount++] = i;
+				}
+			}
+			if (missedCount > 0) {
+				Dataset data = builder.build();
+				double[] scored = new Predictor(tree, data).predict(data.rows());
+				for (int j = 0; j < missedCount; j++) {
+					predictions[missed[j]] = scored[j];
+					if (cache != null && data.getIdentifier(j).length() > 0) {
+						cache.put(data.getIdentifier(j), served.version, scored[j]);
+					}
+				}
+			}
+			
+			StringBuilder result = new StringBuilder();
+			if (json) {
+				result.append(batch ? "{\"predictions\":[" : "{\"prediction\":");
+				for (int i = 0; i < predictions.length; i++) {
+					if (i > 0) {
+						result.append(',');
+					}
+					result.append(Double.isNaN(predictions[i]) ? "null" : Double.toString(predictions[i]));
+				}
+				result.append(batch ? "]}\n" : "}\n");
+			} else {
+				for (double prediction : predictions) {
+					result.append(prediction).append('\n');
+				}
+			}
+			respond(exchange, 200, json ? "application/json" : "text/plain", result.toString());
+		} catch (ParseException e) {
+			respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+		} catch (NumberFormatException e) {
+			respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+		} catch (RuntimeException e) {
+			respond(exchange, 500, "text/plain", e + "\n");
+		} finally {
+			(batch ? batchLatency : predictLatency).record(System.nanoTime() - start);
+		}
+	}
+	
+	/*
+	 * @param body tab separated rows, one per line
+	 * @return columns of each non-empty line
+	 */
+	private static List<String[]> parseTsv(String body) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line : body.split("\r?\n")) {
+			if (line.length() > 0) {
+				rows.add(line.split("\t", -1));
+			}
+		}
+		return rows;
+	}
+	
+	private static String read(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) > 0) {
+			body.write(buffer, 0, count);
+		}
+		in.close();
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	private static void respond(HttpExchange exchange, int status, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+	
+	/*
+	 * A model and the version it is served under.
+	 */
+	private static class Served {
+		private final FlatTree tree;
+		private final long version;
+		
+		public Served(FlatTree tree, long version) {
+			this.tree = tree;
+			this.version = version;
+		}
+	}
+	
+	/*
+	 * Latency histogram with power of two microsecond buckets.
+	 */
+	public static class Histogram {
+		private static final int BUCKETS = 32;
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		
+		/*
+		 * @param nanos latency of one request
+		 */
+		public void record(long nanos) {
+			long micros = Math.max(nanos / 1000, 1);
+			int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+			counts.incrementAndGet(bucket);
+		}
+		
+		public long getCount() {
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				total += counts.get(i);
+			}
+			return total;
+		}
+		
+		/*
+		 * @param quantile fraction of requests, e.g. 0.99
+		 * @return upper bound in microseconds of the bucket holding the quantile
+		 */
+		public long getQuantile(double quantile) {
+			long total = getCount();
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts.get(i);
+				if (seen > 0 && seen >= quantile * total) {
+					return 2L << i;
+				}
+			}
+			return 0;
+		}
+		
+		public String toString() {
+			String result = "count=" + getCount() + " p50<" + getQuantile(0.5) + "us p99<" + getQuantile(0.99) + "us [";
+			boolean first = true;
+			for (int i = 0; i < BUCKETS; i++) {
+				if (counts.get(i) > 0) {
+					result += (first ? "" : ", ") + "<" + (2L << i) + "us:" + counts.get(i);
+					first = false;
+				}
+			}
+			return result + "]";
+		}
+	}
+	
+	/*
+	 * Reads just enough JSON for rows: arrays of strings, numbers,
+	 * booleans and nulls.
+	 */
+	private static class Json {
+		private final String text;
+		private int position;
+		
+		private Json(String text) {
+			this.text = text;
+		}
+		
+		/*
+		 * @param text one row, or an array of rows if batch
+		 * @param batch whether text is an array of rows
+		 * @return columns of each row
+		 */
+		public static List<String[]> parseRows(String text, boolean batch) throws ParseException {
+			Json json = new Json(text);
+			json.skipSpace();
+			List<String[]> rows = new ArrayList<String[]>();
+			if (batch) {
+				json.expect('[');
+				json.skipSpace();
+				if (json.peek() == ']') {
+					json.position++;
+				} else {
+					do {
+						json.skipSpace();
+						rows.add(json.row());
+						json.skipSpace();
+					} while (json.next() == ',');
+					json.position--;
+					json.expect(']');
+				}
+			} else {
+				rows.add(json.row());
+			}
+			json.skipSpace();
+			if (json.position < text.length()) {
+				throw new ParseException("Unexpected text after JSON", json.position);
+			}
+			return rows;
+		}
+		
+		private String[] row() throws ParseException {
+			List<String> columns = new ArrayList<String>();
+			expect('[');
+			skipSpace();
+			if (peek() == ']') {
+				position++;
+				return new String[0];
+			}
+			do {
+				skipSpace();
+				columns.add(value());
+				skipSpace();
+			} while (next() == ',');
+			position--;
+			expect(']');
+			return columns.toArray(new String[columns.size()]);
+		}
+		
+		private String value() throws ParseException {
+			if (peek() == '"') {
+				return string();
+			}
+			int start = position;
+			while (position < text.length() && ",] \t\r\n".indexOf(text.charAt(position)) < 0) {
+				position++;
+			}
+			String value = text.substring(start, position);
+			if (value.length() == 0) {
+				throw new ParseException("Expected a value", start);
+			}
+			return value.equals("null") ? "" : value;
+		}
+		
+		private String string() throws ParseException {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			char c;
+			while ((c = next()) != '"') {
+				if (c == '\\') {
+					c = next();
+					switch (c) {
+					case 'n':
+						c = '\n';
+						break;
+					case 't':
+						c = '\t';
+						break;
+					case 'r':
+						c = '\r';
+						break;
+					case 'b':
+						c = '\b';
+						break;
+					case 'f':
+						c = '\f';
+						break;
+					case 'u':
+						if (position + 4 > text.length()) {
+							throw new ParseException("Bad unicode escape", position);
+						}
+						c = (char) Integer.parseInt(text.substring(position, position + 4), 16);
+						position += 4;
+						break;
+					}
+				}
+				result.append(c);
+			}
+			return result.toString();
+		}
+		
+		private void skipSpace() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+		
+		private char peek() throws ParseException {
+			if (position >= text.length()) {
+				throw new ParseException("Unexpected end of JSON", position);
+			}
+			return text.charAt(position);
+		}
+		
+		private char next() throws ParseException {
+			char c = peek();
+			position++;
+			return c;
+		}
+		
+		private void expect(char c) throws ParseException {
+			if (next() != c) {
+				throw new ParseException("Expected " + c, position - 1);
+			}
+		}
+	}
+	
+	/*
+	 * Serves a saved model.
+	 * @param args model file, then optionally the port (default 8080), the
+	 * address to listen on (default loopback; e.g. 0.0.0.0 for every
+	 * interface) and the number of predictions to cache (default 0 = no
+	 * cache)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ScoringServer <model file> [port] [address] [cache size]");
+			System.exit(1);
+		}
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		InetAddress host = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+		int cacheSize = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		PredictionCache cache = cacheSize > 0 ? new PredictionCache(cacheSize, CACHE_TTL) : null;
+		ScoringServer server = new ScoringServer(ModelFile.read(new File(args[0])), new InetSocketAddress(host, port), cache);
+		server.start();
+		System.out.println("Scoring with " + server.getModel() + " on " + host.getHostAddress() + ":" + server.getPort());
+	}
+}
@@ -0,0 +1,40 @@
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Hand-built tree and assertion shared by the main-based checks. The
+ * data file layout of the tree's rows is id, imdb id, output, director,
+ * genre, runtime.
+ */
+public class TestSupport {
+	public static final Feature DIRECTOR = new Feature(0, 3, "director", Arrays.asList("A", "B", "C"));
+	public static final Feature GENRE = new Feature(1, 4, "genre", Arrays.asList("Drama", "Comedy"));
+	public static final List<Feature> DISCRETE = Arrays.asList(DIRECTOR, GENRE);
+	public static final List<Feature> CONTINUOUS = Arrays.asList(new Feature(0, 5, "runtime"));
+	
+	/*
+	 * Director A splits on genre: Drama predicts 6 and Comedy
+	 * 3 + runtime / 16. B predicts runtime / 16 - 1.25 and C 7.
+	 */
+	public static final FlatTree MODEL = new FlatTree(DISCRETE, CONTINUOUS, new int[] {0, 1, -1, -1, -1, -1}, new int[] {0, 3, 0, 2, 4, 6},
+		new int[] {1, 2, 3, 4, 5}, new double[] {-1.25, 0.0625, 7, 0, 6, 0, 3, 0.0625});
+	
+	/*
+	 * @param discrete value indices of the row, one array per feature
+	 * @param runtime runtime of the row
+	 * @return dataset holding the one row
+	 */
+	public static Dataset row(int[][] discrete, double runtime) {
+		return new Dataset.Builder(DISCRETE, CONTINUOUS).add(1, "tt1", 0, discrete, new double[] {runtime}).build();
+	}
+	
+	/*
+	 * @param condition condition that must hold
+	 * @param message what went wrong otherwise
+	 */
+	public static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * Finds the rows with the highest predictions without evaluating every
+ * row. Each leaf's equation is bounded from above over the ranges the
+ * continuous features take in the dataset. Rows are grouped by the leaf
+ * they reach and groups are scored best bound first, stopping once no
+ * remaining bound can beat the k-th best prediction so far.
+ */
+public class TopK {
+	private final Predictor predictor;
+	private final FlatTree tree;
+	private final Dataset data;
+	private final double[] bound; // upper bound of each leaf's equation, by node
+	
+	/*
+	 * Precomputes the leaf bounds for a dataset.
+	 * @param predictor predictor for the dataset holding the candidates
+	 */
+	public TopK(Predictor predictor) {
+		this.predictor = predictor;
+		this.tree = predictor.getTree();
+		this.data = predictor.getDataset();
+		
+		// observed range of each continuous feature
+		int size = data.getContinuousSize();
+		double[] min = new double[size];
+		double[] max = new double[size];
+		for (int f = 0; f < size; f++) {
+			double[] column = data.getContinuousColumn(f);
+			min[f] = Double.POSITIVE_INFINITY;
+			max[f] = Double.NEGATIVE_INFINITY;
+			for (double x : column) {
+				min[f] = Math.min(min[f], x);
+				max[f] = Math.max(max[f], x);
+			}
+		}
+		
+		double[] weights = tree.getWeights();
+		bound = new double[tree.getNodeCount()];
+		for (int node = 0; node < bound.length; node++) {
+			if (!tree.isLeaf(node)) {
+				continue;
+			}
+			int offset = tree.getWeightOffset(node);
+			double result = weights[offset];
+			double magnitude = Math.abs(result);
+			for (int f = 0; f < size; f++) {
+				double w = weights[offset + f + 1];
+				double term = w >= 0 ? w * max[f] : w * min[f];
+				result += term;
+				magnitude += Math.abs(term);
+			}
+			// allow for rounding in the order solve() sums the terms
+			bound[node] = result + 1e-9 * magnitude;
+		}
+	}
+	
+	/*
+	 * @param rows candidate row indices
+	 * @param k number of rows to return
+	 * @return the k rows with the highest predictions, best first; ties go
+	 * to the lower row index and rows predicting NaN are left out
+	 */
+	public Result query(int[] rows, int k) {
+		if (k <= 0) {
+			return new Result(new int[0], new double[0], 0);
+		}
+		
+		// route each row; rows reaching one leaf are grouped, others stand alone
+		int nodeCount = tree.getNodeCount();
+		int[] leafOf = new int[rows.length];
+		int[] leaves = new int[nodeCount];
+		double[] shares = new double[nodeCount];
+		int[] groupSize = new int[nodeCount + 1];
+		int mixed = 0;
+		double[] mixedBound = new double[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			int count = predictor.leaves(rows[i], leaves, shares);
+			if (count == 1) {
+				leafOf[i] = leaves[0];
+				groupSize[leaves[0] + 1]++;
+			} else if (count > 1) {
+				leafOf[i] = -1;
+				double b = 0;
+				for (int j = 0; j < count; j++) {
+					b += shares[j] * bound[leaves[j]];
+				}
+				mixedBound[i] = b;
+				mixed++;
+			} else {
+				leafOf[i] = -2; // no prediction
+			}
+		}
+		
+		// units: one per leaf group, one per row reaching several leaves
+		int[] start = groupSize;
+		for (int node = 0; node < nodeCount; node++) {
+			start[node + 1] += start[node];
+		}
+		int[] grouped = new int[start[nodeCount]];
+		int[] next = Arrays.copyOf(start, nodeCount);
+		final double[] unitBound = new double[nodeCount + mixed];
+		int[] unitFrom = new int[nodeCount + mixed];
+		int[] unitTo = new int[nodeCount + mixed];
+		int[] unitLeaf = new int[nodeCount + mixed];
+		int units = 0;
+		for (int i = 0; i < rows.length; i++) {
+			if (leafOf[i] >= 0) {
+				grouped[next[leafOf[i]]++] = rows[i];
+			} else if (leafOf[i] == -1) {
+				unitBound[units] = mixedBound[i];
+				unitFrom[units] = rows[i];
+				unitLeaf[units] = -1;
+				units++;
+			}
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			if (start[node + 1] > start[node]) {
+				unitBound[units] = bound[node];
+				unitFrom[units] = start[node];
+				unitTo[units] = start[node + 1];
+				unitLeaf[units] = node;
+				units++;
+			}
+		}
+		Integer[] order = new Integer[units];
+		for (int u = 0; u < units; u++) {
+			order[u] = u;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(unitBound[b], unitBound[a]);
+			}
+		});
+		
+		// score units best bound first into a heap of the k best
+		Heap best = new Heap(k);
+		long evaluated = 0;
+		for (Integer u : order) {
+			if (best.isFull() && unitBound[u] < best.worstPrediction()) {
+				break;
+			}
+			if (unitLeaf[u] < 0) {
+				best.offer(unitFrom[u], predictor.predict(unitFrom[u]));
+				evaluated++;
+				continue;
+			}
+			for (int j = unitFrom[u]; j < unitTo[u]; j++) {
+				best.offer(grouped[j], tree.solve(unitLeaf[u], data, grouped[j]));
+			}
+			evaluated += unitTo[u] - unitFrom[u];
+		}
+		return best.result(evaluated);
+	}
+	
+	/*
+	 * Rows with the highest predictions, best first.
+	 */
+	public static class Result {
+		private final int[] rows;
+		private final double[] predictions;
+		private final long evaluated;
+		
+		public Result(int[] rows, double[] predictions, long evaluated) {
+			this.rows = rows;
+			this.predictions = predictions;
+			this.evaluated = evaluated;
+		}
+		
+		public int[] getRows() {
+			return rows;
+		}
+		
+		public double[] getPredictions() {
+			return predictions;
+		}
+		
+		/*
+		 * @return number of candidates whose prediction was computed
+		 */
+		public long getEvaluated() {
+			return evaluated;
+		}
+	}
+	
+	/*
+	 * Min-heap of the k best (prediction, row) pairs; the root is the worst.
+	 */
+	private static class Heap {
+		private final int[] rows;
+		private final double[] predictions;
+		private int size;
+		
+		public Heap(int capacity) {
+			rows = new int[capacity];
+			predictions = new double[capacity];
+		}
+		
+		public boolean isFull() {
+			return size == rows.length;
+		}
+		
+		public double worstPrediction() {
+			return predictions[0];
+		}
+		
+		public void offer(int row, double prediction) {
+			if (Double.isNaN(prediction) || rows.length == 0) {
+				return;
+			}
+			if (size < rows.length) {
+				rows[size] = row;
+				predictions[size] = prediction;
+				up(size++);
+			} else if (worse(rows[0], predictions[0], row, prediction)) {
+				rows[0] = row;
+				predictions[0] = prediction;
+				down(0);
+			}
+		}
+		
+		/*
+		 * @return whether (rowA, a) ranks below (rowB, b)
+		 */
+		private static boolean worse(int rowA, double a, int rowB, double b) {
+			return a < b || (a == b && rowA > rowB);
+		}
+		
+		private void up(int i) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (!worse(rows[i], predictions[i], rows[parent], predictions[parent])) {
+					break;
+				}
+				swap(i, parent);
+				i = parent;
+			}
+		}
+		
+		private void down(int i) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && worse(rows[child + 1], predictions[child + 1], rows[child], predictions[child])) {
+					child++;
+				}
+				if (!worse(rows[child], predictions[child], rows[i], predictions[i])) {
+					break;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+		
+		private void swap(int i, int j) {
+			int row = rows[i];
+			rows[i] = rows[j];
+			rows[j] = row;
+			double prediction = predictions[i];
+			predictions[i] = predictions[j];
+			predictions[j] = prediction;
+		}
+		
+		/*
+		 * Empties the heap worst first to list the rows best first.
+		 */
+		public Result result(long evaluated) {
+			int count = size;
+			int[] sortedRows = new int[count];
+			double[] sortedPredictions = new double[count];
+			for (int i = count - 1; i >= 0; i--) {
+				sortedRows[i] = rows[0];
+				sortedPredictions[i] = predictions[0];
+				size--;
+				rows[0] = rows[size];
+				predictions[0] = predictions[size];
+				down(0);
+			}
+			return new Result(sortedRows, sortedPredictions, evaluated);
+		}
+	}
+}
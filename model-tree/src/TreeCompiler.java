@@ -0,0 +1,291 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/*
+ * Turns a trained tree into a Java class whose predict method is a switch
+ * on the value ordinal at each split, with every leaf's linear equation
+ * written out as an expression. The source is compiled in memory with
+ * javax.tools and loaded as a hidden class, so it can be dropped once the
+ * model is no longer used.
+ */
+public class TreeCompiler {
+	private static final String CLASS_NAME = "CompiledTree";
+	private static final int SWITCH_LIMIT = 1024; // splits with more case labels use a lookup table
+	public static final int NODE_LIMIT = 64; // larger trees predict faster through Predictor
+	
+	/*
+	 * On the 5000 movie data set compiled trees of up to about 40 nodes
+	 * beat Predictor, while trees of 130 nodes and more lose to it: their
+	 * wide switches stay interpreted and multi-valued rows go through a
+	 * Predictor anyway.
+	 * @param tree trained tree
+	 * @return whether compiling the tree is expected to pay off
+	 */
+	public static boolean isWorthCompiling(FlatTree tree) {
+		return tree.getNodeCount() <= NODE_LIMIT;
+	}
+	
+	/*
+	 * @param tree trained tree, with at most NODE_LIMIT nodes
+	 * @return compiled predictor for the tree
+	 */
+	public static CompiledModel compile(FlatTree tree) {
+		if (!isWorthCompiling(tree)) {
+			throw new IllegalArgumentException("Tree has " + tree.getNodeCount() + " nodes, more than the " + NODE_LIMIT + " worth compiling; use Predictor");
+		}
+		return compileUnchecked(tree);
+	}
+	
+	/*
+	 * Compiles a tree of any size, e.g. to benchmark one above NODE_LIMIT.
+	 * @param tree trained tree
+	 * @return compiled predictor for the tree
+	 */
+	private static CompiledModel compileUnchecked(FlatTree tree) {
+		List<int[]> tables = new ArrayList<int[]>();
+		String source = generate(tree, tables);
+		byte[] bytes = javac(source);
+		try {
+			Class<?> type = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+			return (CompiledModel) type.getConstructor(FlatTree.class, int[][].class).newInstance(tree, tables.toArray(new int[0][]));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not load compiled tree", e);
+		}
+	}
+	
+	/*
+	 * Writes the source of the compiled tree. Each internal node gets a
+	 * method that reads the row's value, and a method that switches on
+	 * the value ordinal. Values that lead to the same child share a case;
+	 * the most common child is the default. A row without exactly one
+	 * value goes to CompiledModel.collect, as averaging path by path here
+	 * would evaluate a leaf once for every path into it.
+	 * @param tree trained tree
+	 * @param tables filled with the lookup tables the source refers to
+	 * @return Java source of a CompiledModel subclass
+	 */
+	public static String generate(FlatTree tree, List<int[]> tables) {
+		StringBuilder out = new StringBuilder();
+		out.append("public final class ").append(CLASS_NAME).append(" extends CompiledModel {\n");
+		out.append("\tpublic ").append(CLASS_NAME).append("(FlatTree tree, int[][] tables) {\n");
+		out.append("\t\tsuper(tree, tables);\n");
+		out.append("\t}\n\n");
+		out.append("\tpublic double predict(Dataset d, int row) {\n");
+		out.append("\t\treturn ").append(target(tree, 0)).append(";\n");
+		out.append("\t}\n");
+		
+		for (int node = 0; node < tree.getNodeCount(); node++) {
+			if (tree.isLeaf(node)) {
+				continue;
+			}
+			int feature = tree.getFeatureID(node);
+			out.append("\n\tprivate double n").append(node).append("(Dataset d, int row) {\n");
+			out.append("\t\tFeature f = features[").append(feature).append("];\n");
+			out.append("\t\tint s = d.getValueStart(f, row);\n");
+			out.append("\t\tif (d.getValueEnd(f, row) - s != 1) {\n");
+			out.append("\t\t\treturn collect(d, row);\n");
+			out.append("\t\t}\n");
+			out.append("\t\treturn c").append(node).append("(d, row, d.getValues(f)[s]);\n");
+			out.append("\t}\n");
+			caseMethod(tree, node, tables, out);
+		}
+		out.append("}\n");
+		return out.toString();
+	}
+	
+	private static void caseMethod(FlatTree tree, int node, List<int[]> tables, StringBuilder out) {
+		// group the values by child, in order of first value
+		int valueCount = tree.getFeature(node).getValueCount();
+		Map<Integer, Integer> groupOf = new HashMap<Integer, Integer>();
+		List<Integer> children = new ArrayList<Integer>();
+		List<List<Integer>> groups = new ArrayList<List<Integer>>();
+		for (int value = 0; value < valueCount; value++) {
+			int child = tree.getChild(node, value);
+			Integer group = groupOf.get(child);
+			if (group == null) {
+				group = groups.size();
+				groupOf.put(child, group);
+				children.add(child);
+				groups.add(new ArrayList<Integer>());
+			}
+			groups.get(group).add(value);
+		}
+		int largest = 0;
+		for (int g = 1; g < groups.size(); g++) {
+			if (groups.get(g).size() > groups.get(largest).size()) {
+				largest = g;
+			}
+		}
+		boolean table = valueCount - groups.get(largest).size() > SWITCH_LIMIT;
+		
+		out.append("\n\tprivate double c").append(node).append("(Dataset d, int row, int value) {\n");
+		if (table) {
+			int[] cases = new int[valueCount];
+			for (int g = 0; g < groups.size(); g++) {
+				for (int value : groups.get(g)) {
+					cases[value] = g;
+				}
+			}
+			out.append("\t\tswitch (tables[").append(tables.size()).append("][value]) {\n");
+			tables.add(cases);
+		} else {
+			out.append("\t\tswitch (value) {\n");
+		}
+		for (int g = 0; g < groups.size(); g++) {
+			if (g == largest) {
+				continue;
+			}
+			if (table) {
+				out.append("\t\tcase ").append(g).append(":\n");
+			} else {
+				for (int value : groups.get(g)) {
+					out.append("\t\tcase ").append(value).append(":\n");
+				}
+			}
+			out.append("\t\t\treturn ").append(target(tree, children.get(g))).append(";\n");
+		}
+		out.append("\t\tdefault:\n");
+		out.append("\t\t\treturn ").append(target(tree, children.get(largest))).append(";\n");
+		out.append("\t\t}\n");
+		out.append("\t}\n");
+	}
+	
+	/*
+	 * @param tree trained tree
+	 * @param node node to go to
+	 * @return call of an internal node's method, or a leaf's equation
+	 */
+	private static String target(FlatTree tree, int node) {
+		if (!tree.isLeaf(node)) {
+			return "n" + node + "(d, row)";
+		}
+		// same order as LinearEquation.solve: the weighted terms, then the intercept
+		double[] weights = tree.getWeights();
+		int offset = tree.getWeightOffset(node);
+		int size = tree.getContinuousFeatures().size();
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			result.append(literal(weights[offset + i + 1])).append(" * d.getContinuous(").append(i).append(", row) + ");
+		}
+		return result.append(literal(weights[offset])).toString();
+	}
+	
+	private static String literal(double value) {
+		if (Double.isNaN(value)) {
+			return "Double.NaN";
+		} else if (Double.isInfinite(value)) {
+			return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+		} else {
+			return "(" + Double.toString(value) + ")";
+		}
+	}
+	
+	/*
+	 * Compiles the generated source in memory.
+	 * @param source Java source of the compiled tree
+	 * @return class file bytes
+	 */
+	private static byte[] javac(String source) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException("No Java compiler available; run on a JDK to compile trees");
+		}
+		final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+		StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+		JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+			public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///" + className + kind.extension), kind) {
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						classes.put(className, bytes);
+						return bytes;
+					}
+				};
+			}
+		};
+		final String code = source;
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return code;
+			}
+		};
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"), "-g:none", "-proc:none");
+		boolean success = compiler.getTask(null, manager, diagnostics, options, null, Arrays.asList(file)).call();
+		if (!success || !classes.containsKey(CLASS_NAME)) {
+			String message = "Could not compile tree";
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+				message += "\n" + diagnostic.getMessage(null);
+			}
+			throw new IllegalStateException(message);
+		}
+		return classes.get(CLASS_NAME).toByteArray();
+	}
+	
+	/*
+	 * Benchmarks the compiled tree against Predictor on the 5000 movie
+	 * data set, compiling it even if it is larger than NODE_LIMIT.
+	 * @param args minimum subset size and minimum deviation (default 4 and 0)
+	 */
+	public static void main(String[] args) throws Exception {
+		Parameters parameters = new Parameters(args.length > 0 ? Integer.parseInt(args[0]) : 4, args.length > 1 ? Double.parseDouble(args[1]) : 0);
+		Configuration config = Parse.parseConfigFile("config/config.txt", "../data-collection/datasets/usa/USA_config_5000.txt");
+		Dataset data = Parse.parseDataFile("../data-collection/datasets/usa/usa_data_5000.txt", 1, 2, config.getDiscrete(), config.getContinuous());
+		int[] rows = data.rows();
+		ModelTree tree = new ModelTree(config.getDiscrete(), data, rows, parameters);
+		System.out.println("tree: " + tree.getModel());
+		
+		long start = System.nanoTime();
+		System.out.println("worth compiling: " + isWorthCompiling(tree.getModel()));
+		CompiledModel compiled = compileUnchecked(tree.getModel());
+		System.out.println("compiled in " + (System.nanoTime() - start) / 1000000 + " ms");
+		
+		Predictor predictor = tree.getPredictor(data);
+		double difference = 0;
+		for (int row : rows) {
+			difference = Math.max(difference, Math.abs(compiled.predict(data, row) - predictor.predict(row)));
+		}
+		System.out.println("largest difference from Predictor: " + difference);
+		
+		double sink = 0;
+		for (int round = 0; round < 10; round++) {
+			start = System.nanoTime();
+			for (int i = 0; i < 20; i++) {
+				for (int row : rows) {
+					sink += predictor.predict(row);
+				}
+			}
+			long flat = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i = 0; i < 20; i++) {
+				for (int row : rows) {
+					sink += compiled.predict(data, row);
+				}
+			}
+			long generated = System.nanoTime() - start;
+			double count = 20.0 * rows.length;
+			System.out.println("ns/row\tPredictor " + (long) (flat / count) + "\tcompiled " + (long) (generated / count));
+		}
+		if (sink == 0) {
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * Predicts one movie under every value of one discrete feature ("how
+ * would it rate with each director"). The tree is walked once with the
+ * movie's own values. Only the subtrees below splits on the swept
+ * feature depend on the value, and each distinct child of such a split
+ * is evaluated once. M5 never splits on a feature twice along a path, so
+ * nothing below those children depends on the value.
+ */
+public class WhatIf {
+	private final FlatTree tree;
+	private final Dataset data;
+	private final int row;
+	private final int swept; // id of the swept feature
+	private double constant; // part of the prediction that doesn't depend on the value
+	private boolean missing; // the row has no value for a split it reaches
+	private int[] splits = new int[8]; // splits on the swept feature that the row reaches
+	private double[] shares = new double[8];
+	private int splitCount;
+	
+	private WhatIf(FlatTree tree, Dataset data, int row, Feature feature) {
+		this.tree = tree;
+		this.data = data;
+		this.row = row;
+		this.swept = feature.getID();
+	}
+	
+	/*
+	 * @param tree trained tree
+	 * @param base movie to vary
+	 * @param feature discrete feature to sweep
+	 * @return prediction for every value of the feature, best first,
+	 *         leaving out values the row can't be predicted for
+	 */
+	public static Result sweep(FlatTree tree, Data base, Feature feature) {
+		Dataset data = new Dataset.Builder(tree.getDiscreteFeatures(), tree.getContinuousFeatures()).add(base).build();
+		return sweep(new Predictor(tree, data), 0, feature);
+	}
+	
+	/*
+	 * @param predictor predictor for the dataset holding the movie
+	 * @param row row index of the movie to vary
+	 * @param feature discrete feature to sweep
+	 * @return prediction for every value of the feature, best first,
+	 *         leaving out values the row can't be predicted for
+	 */
+	public static Result sweep(Predictor predictor, int row, Feature feature) {
+		WhatIf sweep = new WhatIf(predictor.getTree(), predictor.getDataset(), row, feature);
+		return sweep.run(feature);
+	}
+	
+	private Result run(Feature feature) {
+		int valueCount = feature.getValueCount();
+		final double[] predictions = new double[valueCount];
+		walk(0, 1);
+		if (missing) {
+			Arrays.fill(predictions, Double.NaN);
+		} else {
+			Arrays.fill(predictions, constant);
+			
+			// each distinct child once, then look it up for every value
+			double[] subtree = new double[tree.getNodeCount()];
+			boolean[] done = new boolean[tree.getNodeCount()];
+			for (int i = 0; i < splitCount; i++) {
+				for (int value = 0; value < valueCount; value++) {
+					int child = tree.getChild(splits[i], value);
+					if (!done[child]) {
+						subtree[child] = predict(child);
+						done[child] = true;
+					}
+					predictions[value] += shares[i] * subtree[child];
+				}
+			}
+		}
+		
+		// values predicting NaN (a missing value on their path) are left out
+		Integer[] order = new Integer[valueCount];
+		int count = 0;
+		for (int value = 0; value < valueCount; value++) {
+			if (!Double.isNaN(predictions[value])) {
+				order[count++] = value;
+			}
+		}
+		Arrays.sort(order, 0, count, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(predictions[b], predictions[a]);
+			}
+		});
+		int[] values = new int[count];
+		double[] ranked = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = order[i];
+			ranked[i] = predictions[order[i]];
+		}
+		return new Result(feature, values, ranked);
+	}
+	
+	/*
+	 * Follows the row's own values down to leaves or splits on the swept
+	 * feature.
+	 * @param node current node
+	 * @param share share of the prediction that goes through the node
+	 */
+	private void walk(int node, double share) {
+		if (tree.isLeaf(node)) {
+			constant += share * tree.solve(node, data, row);
+			return;
+		}
+		if (tree.getFeatureID(node) == swept) {
+			if (splitCount == splits.length) {
+				splits = Arrays.copyOf(splits, splitCount * 2);
+				shares = Arrays.copyOf(shares, splitCount * 2);
+			}
+			splits[splitCount] = node;
+			shares[splitCount] = share;
+			splitCount++;
+			return;
+		}
+		Feature feature = tree.getFeature(node);
+		int start = data.getValueStart(feature, row);
+		int end = data.getValueEnd(feature, row);
+		if (start == end) {
+			missing = true;
+			return;
+		}
+		int[] values = data.getValues(feature);
+		for (int j = start; j < end; j++) {
+			walk(tree.getChild(node, values[j]), share / (end - start));
+		}
+	}
+	
+	/*
+	 * @param node root of a subtree that doesn't split on the swept feature
+	 * @return prediction of the subtree for the row, or NaN if the row has
+	 *         no value for a split it reaches
+	 */
+	private double predict(int node) {
+		if (tree.isLeaf(node)) {
+			return tree.solve(node, data, row);
+		}
+		Feature feature = tree.getFeature(node);
+		int start = data.getValueStart(feature, row);
+		int end = data.getValueEnd(feature, row);
+		if (start == end) {
+			return Double.NaN;
+		}
+		int[] values = data.getValues(feature);
+		double average = 0;
+		for (int j = start; j < end; j++) {
+			average += predict(tree.getChild(node, values[j]));
+		}
+		return average / (end - start);
+	}
+	
+	/*
+	 * Predictions for every value of the swept feature, best first.
+	 */
+	public static class Result {
+		private final Feature feature;
+		private final int[] values;
+		private final double[] predictions;
+		
+		public Result(Feature feature, int[] values, double[] predictions) {
+			this.feature = feature;
+			this.values = values;
+			this.predictions = predictions;
+		}
+		
+		public Feature getFeature() {
+			return feature;
+		}
+		
+		/*
+		 * @return value indices of the feature, best prediction first
+		 */
+		public int[] getValues() {
+			return values;
+		}
+		
+		public double[] getPredictions() {
+			return predictions;
+		}
+		
+		/*
+		 * @param count number of values to list
+		 * @return the best values with their predictions, one per line
+		 */
+		public String toString(int count) {
+			String result = "";
+			for (int i = 0; i < Math.min(count, values.length); i++) {
+				result += feature.getValue(values[i]) + "\t" + predictions[i] + "\n";
+			}
+			return result;
+		}
+	}
+}
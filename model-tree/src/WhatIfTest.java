@@ -0,0 +1,24 @@
+import java.util.Arrays;
+
+/*
+ * Sweeps the hand-built tree of TestSupport with rows that have and lack
+ * values for its splits. Throws on the first check that fails.
+ */
+public class WhatIfTest {
+	public static void main(String[] args) {
+		WhatIf.Result result = WhatIf.sweep(new Predictor(TestSupport.MODEL, TestSupport.row(new int[][] {{0}, {1}}, 100)), 0, TestSupport.DIRECTOR);
+		TestSupport.check(Arrays.equals(result.getValues(), new int[] {0, 2, 1}), "ranks every director: " + Arrays.toString(result.getValues()));
+		TestSupport.check(Arrays.equals(result.getPredictions(), new double[] {9.25, 7, 5}), "predicts every director: " + Arrays.toString(result.getPredictions()));
+		
+		// no genre: director A can't be predicted and is left out
+		result = WhatIf.sweep(new Predictor(TestSupport.MODEL, TestSupport.row(new int[][] {{0}, {}}, 100)), 0, TestSupport.DIRECTOR);
+		TestSupport.check(Arrays.equals(result.getValues(), new int[] {2, 1}), "leaves out director A: " + Arrays.toString(result.getValues()));
+		TestSupport.check(Arrays.equals(result.getPredictions(), new double[] {7, 5}), "predicts the other directors: " + Arrays.toString(result.getPredictions()));
+		
+		// no director: the split above the swept one can't be followed
+		result = WhatIf.sweep(new Predictor(TestSupport.MODEL, TestSupport.row(new int[][] {{}, {0}}, 100)), 0, TestSupport.GENRE);
+		TestSupport.check(result.getValues().length == 0, "leaves out every genre: " + Arrays.toString(result.getValues()));
+		
+		System.out.println("WhatIfTest passed");
+	}
+}